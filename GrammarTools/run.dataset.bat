@@ -11,10 +11,14 @@ rem ideally, output filename is "corpus.errortype.n.arff", but it's also suffici
 set in=%2
 set out=%3
 
+rem profile = toolkit profile: fast, balanced (default) or accurate
+set profile=%4
+if "%profile%"=="" set profile=balanced
+
 rem heap memory, more is better!
 set mem=4096m
 
-java -Xmx%mem% -jar "dist.dataset\GrammarTools.DataSetConsoleApp.jar" %n% %in% %out%
+java -Xmx%mem% -jar "dist.dataset\GrammarTools.DataSetConsoleApp.jar" %n% %in% %out% %profile%
 
 rem examples
 rem run.dataset.bat 0 "data\...\orig" "data\...\orig\...orig.arff"
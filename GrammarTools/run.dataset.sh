@@ -11,11 +11,15 @@ n=$1
 in=$2
 out=$3
 
+#profile = toolkit profile: fast, balanced (default) or accurate
+profile=${4:-balanced}
+
 #heap memory, more is better!
 mem=4096m
 
-java -Xmx$mem -jar "dist.dataset/GrammarTools.DataSetConsoleApp.jar" $n $in $out
+java -Xmx$mem -jar "dist.dataset/GrammarTools.DataSetConsoleApp.jar" $n $in $out $profile
 
 # examples
 # run.dataset.sh 0 "data\...\orig" "data\...\orig\...orig.arff"
-# run.dataset.sh 1 "data\...\tense\1" "data\...\orig\...tense.1.arff"
\ No newline at end of file
+# run.dataset.sh 1 "data\...\tense\1" "data\...\orig\...tense.1.arff"
+# run.dataset.sh 0 "data\...\orig" "data\...\orig\...orig.arff" fast
\ No newline at end of file
@@ -0,0 +1,29 @@
+@echo off
+rem Runs a server on localhost that keeps the models loaded and runs the tools over HTTP
+
+rem port = port to listen on (default 8090)
+set port=%1
+if "%port%"=="" set port=8090
+
+rem profile = toolkit profile: fast, balanced (default) or accurate
+set profile=%2
+if "%profile%"=="" set profile=balanced
+
+rem sessions = number of requests processed at the same time (default: one per processor)
+set sessions=%3
+
+rem queued = number of further requests waiting for a session before requests are rejected (default: four per session)
+set queued=%4
+
+rem options = any further arguments fix options for all requests as "name=value", e.g. "grammarFile=grammar.pl";
+rem requests cannot set files or the function script themselves
+
+rem heap memory, more is better!
+set mem=4096m
+
+java -Xmx%mem% -cp "dist.dataset\GrammarTools.DataSetConsoleApp.jar" grammartools.ui.GrammarToolsServer %port% %profile% %sessions% %queued% %5 %6 %7 %8 %9
+
+rem examples
+rem run.server.bat
+rem run.server.bat 8091 fast 4
+rem run.server.bat 8090 balanced 4 16 "grammarFile=grammar.pl" "verdictFile=verdicts.txt"
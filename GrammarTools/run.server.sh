@@ -0,0 +1,29 @@
+#!/bin/sh
+#Runs a server on localhost that keeps the models loaded and runs the tools over HTTP
+
+#port = port to listen on (default 8090)
+port=${1:-8090}
+
+#profile = toolkit profile: fast, balanced (default) or accurate
+profile=${2:-balanced}
+
+#sessions = number of requests processed at the same time (default: one per processor)
+sessions=$3
+
+#queued = number of further requests waiting for a session before requests are rejected (default: four per session)
+queued=$4
+
+#options = any further arguments fix options for all requests as name=value, e.g. grammarFile=grammar.pl;
+#requests cannot set files or the function script themselves
+if [ $# -gt 4 ]; then shift 4; else shift $#; fi
+
+#heap memory, more is better!
+mem=4096m
+
+java -Xmx$mem -cp "dist.dataset/GrammarTools.DataSetConsoleApp.jar" grammartools.ui.GrammarToolsServer $port $profile $sessions $queued "$@"
+
+# examples
+# run.server.sh
+# run.server.sh 8091 fast 4
+# run.server.sh 8090 balanced 4 16 grammarFile=grammar.pl verdictFile=verdicts.txt
+# curl -H "Content-Type: application/octet-stream" --data-binary @sentences.txt "http://localhost:8090/parse?maxResults=2"
@@ -0,0 +1,14 @@
+@echo off
+rem Runs a tool without the GUI, reading text from the files or stdin and writing the output to stdout
+
+rem arguments = tool [--option=value ...] [--toolkit=fast|balanced|accurate] [file ...]
+rem run without arguments to list the tools
+
+rem heap memory, more is better!
+set mem=4096m
+
+java -Xmx%mem% -cp "dist.dataset\GrammarTools.DataSetConsoleApp.jar" grammartools.ui.GrammarToolsConsoleApp %*
+
+rem examples
+rem run.tool.bat parse --maxResults=2 < sentences.txt
+rem run.tool.bat xml --outputFile=out.xml corpus1.txt corpus2.txt
@@ -0,0 +1,15 @@
+#!/bin/sh
+#Runs a tool without the GUI, reading text from the files or stdin and writing the output to stdout
+
+#arguments = tool [--option=value ...] [--toolkit=fast|balanced|accurate] [file ...]
+#run without arguments to list the tools
+
+#heap memory, more is better!
+mem=4096m
+
+java -Xmx$mem -cp "dist.dataset/GrammarTools.DataSetConsoleApp.jar" grammartools.ui.GrammarToolsConsoleApp "$@"
+
+# examples
+# run.tool.sh parse --maxResults=2 < sentences.txt
+# cat corpus/*.txt | run.tool.sh dcg --grammarFile=grammar.pl --nThreads=4 | grep -v "^$"
+# run.tool.sh xml --outputFile=out.xml corpus1.txt corpus2.txt && run.tool.sh stats out.xml
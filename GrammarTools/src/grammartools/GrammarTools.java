@@ -2,23 +2,28 @@ package grammartools;
 
 import alice.tuprolog.InvalidLibraryException;
 import alice.tuprolog.InvalidTheoryException;
-import alice.tuprolog.MalformedGoalException;
-import alice.tuprolog.Prolog;
-import alice.tuprolog.SolveInfo;
-import alice.tuprolog.lib.DCGLibrary;
 import edu.stanford.nlp.util.ArrayUtils;
 import grammartools.chunker.Chunker;
 import grammartools.chunker.Chunking;
 import grammartools.chunker.OpenNLPChunker;
+import grammartools.dcg.CachedGrammar;
+import grammartools.dcg.Grammar;
+import grammartools.dcg.Grammars;
+import grammartools.dcg.ProfiledGrammar;
+import grammartools.dcg.PrologGrammar;
+import grammartools.dcg.TwoStageGrammar;
+import grammartools.parser.FlatParseTree;
 import grammartools.parser.OpenNLPParseTree;
 import grammartools.parser.OpenNLPParser;
 import grammartools.parser.ParseTree;
+import grammartools.parser.ParseTreeCursor;
 import grammartools.parser.Parser;
 import grammartools.parser.StanfordParseTree;
 import grammartools.parser.StanfordParser;
 import grammartools.sentence.OpenNLPSentenceSplitter;
 import grammartools.sentence.SentenceSplitter;
 import grammartools.sentence.StanfordSentenceSplitter;
+import grammartools.tagger.CompactTagging;
 import grammartools.tagger.OpenNLPTagger;
 import grammartools.tagger.StanfordTagger;
 import grammartools.tagger.Tagger;
@@ -26,6 +31,8 @@ import grammartools.tagger.Tagging;
 import grammartools.tokenizer.OpenNLPTokenizer;
 import grammartools.tokenizer.StanfordTokenizer;
 import grammartools.tokenizer.Tokenizer;
+import grammartools.util.Deadline;
+import grammartools.util.PennTreebankTags;
 import grammartools.util.ProcessedSentence;
 import grammartools.util.SentenceInstance;
 import grammartools.util.SentenceStatistics;
@@ -67,6 +74,10 @@ import weka.core.converters.Loader;
 
 /**
  * Performs various NLP and grammar analysis tasks
+ * <p>
+ * An instance is a session: it runs one tool at a time and reports that run to its UI worker.
+ * The models (toolkits) and SimpleNLG lexicon it uses are held by a thread-safe core, which sessions created 
+ * with {@link #GrammarTools(GrammarTools)} share, so many tool runs can go on at the same time in one JVM.
  * @author Anthony Penniston
  */
 public class GrammarTools
@@ -77,38 +88,69 @@ public class GrammarTools
         boolean isCancelled();
     }
 
+    public GrammarTools()
+    {
+        this.core = new Core();
+    }
+    
+    /**
+     * Creates a session that shares the core of other tools: their toolkits, including ones initialized later,
+     * and their SimpleNLG lexicon. The session has its own UI worker, so both can run tools at the same time
+     * without loading the models again.
+     * @param tools the tools whose core is shared
+     */
+    public GrammarTools(GrammarTools tools)
+    {
+        this.core = tools.core;
+    }
+
     public void initOpenNLPToolkit( String modelsPath ) 
             throws IOException
     {
-        final Toolkit t = new Toolkit("OpenNLP");
+        initOpenNLPToolkit( modelsPath, DEF_TOOLKIT_PROFILE );
+    }
+    
+    public void initOpenNLPToolkit( String modelsPath, ToolkitProfile profile ) 
+            throws IOException
+    {
+        final Toolkit t = new Toolkit("OpenNLP", profile);
         t.sentenceSplitter = new OpenNLPSentenceSplitter( modelsPath + SEP + OPENNLP_SENT_MODEL );
         t.tokenizer = new OpenNLPTokenizer( modelsPath + SEP + OPENNLP_TOKEN_MODEL );
-        t.tagger    = new OpenNLPTagger( modelsPath + SEP + OPENNLP_TAG_MODEL );
+        t.tagger    = new OpenNLPTagger( modelsPath + SEP + profile.opennlpTagModel, 
+                                         profile.useTagDict ? modelsPath + SEP + OPENNLP_TAG_DICT : null,
+                                         profile.tagBeamSize, profile.tagCacheSize );
         t.chunker   = new OpenNLPChunker( modelsPath + SEP + OPENNLP_CHUNK_MODEL );
-        t.parser    = new OpenNLPParser( modelsPath + SEP + OPENNLP_PARSE_MODEL );
-        opennlpToolkit = t;
+        t.parser    = new OpenNLPParser( modelsPath + SEP + OPENNLP_PARSE_MODEL, 
+                                         profile.parseBeamSize, profile.parseAdvancePercentage );
+        core.opennlpToolkit = t;
     }
     
     public void initStanfordToolkit( String modelsPath ) 
             throws IOException, ClassNotFoundException
     {
-        final Toolkit t = new Toolkit("Stanford");
+        initStanfordToolkit( modelsPath, DEF_TOOLKIT_PROFILE );
+    }
+    
+    public void initStanfordToolkit( String modelsPath, ToolkitProfile profile ) 
+            throws IOException, ClassNotFoundException
+    {
+        final Toolkit t = new Toolkit("Stanford", profile);
         t.sentenceSplitter = new StanfordSentenceSplitter();
         t.tokenizer = new StanfordTokenizer();
-        t.tagger    = new StanfordTagger( modelsPath + SEP + STANFORD_TAG_SUBPATH );
+        t.tagger    = new StanfordTagger( modelsPath + SEP + profile.stanfordTagModel );
         t.chunker   = null;
-        t.parser    = new StanfordParser( modelsPath + SEP + STANFORD_PARSE_SUBPATH );
-        stanfordToolkit = t;
+        t.parser    = new StanfordParser( modelsPath + SEP + STANFORD_PARSE_SUBPATH, profile.stanfordMaxLength );
+        core.stanfordToolkit = t;
     }
         
     public Toolkit getOpenNLPToolkit()
     {
-        return opennlpToolkit;
+        return core.opennlpToolkit;
     }
     
     public Toolkit getStanfordToolkit()
     {
-        return stanfordToolkit;
+        return core.stanfordToolkit;
     }
         
     public void setUIWorker(UIWorker worker)
@@ -129,6 +171,261 @@ public class GrammarTools
         return this.uiWorker != null && this.uiWorker.isCancelled();
     }
     
+    /**
+     * A sentence processed as part of a batch run.
+     * run() may be called on any thread; finish() is called on the thread running the batch,
+     * in the original order of the items, once the item has been processed or abandoned.
+     */
+    private static abstract class BatchItem implements Runnable
+    {
+        /**
+         * @param cost estimated cost of processing the item, relative to the other items of the batch
+         */
+        public BatchItem(double cost) { this.cost = cost; }
+        @Override public String toString() { return output; }
+        /**
+         * @param output the output of the item, including any timeout notice
+         * @return the text to report for the item
+         */
+        protected String finish(String output) { return output; }
+        protected String output = "";
+        private final double cost;
+    }
+    
+    /**
+     * Estimates the cost of processing a sentence from its length.
+     * Processing time is dominated by parsing, which grows with the number of tokens, 
+     * so the characters of the sentence are a good enough measure for ordering a batch.
+     */
+    private static double estimateCost(String sentence)
+    {
+        return sentence.length();
+    }
+    
+    /**
+     * Processes the items of a batch, reporting them in their original order.
+     * The items are run directly on nThreads worker threads, which keep their thread-local taggers, chunkers
+     * and parsers for the whole batch; the time budget of an item is checked cooperatively through {@link Deadline}.
+     * With more than one thread the most expensive items are started first (longest processing time first),
+     * so that a few long sentences started late do not keep the run going after the other threads are idle.
+     * @param items                 the items of the batch
+     * @param nThreads              number of items processed at the same time
+     * @param maxItemProcessTime    time budget of an item in milliseconds, 0 is infinite
+     */
+    private void runBatch(final List<BatchItem> items, int nThreads, final long maxItemProcessTime)
+    {
+        final double total = items.size();
+        long progress = 0;
+        
+        final Integer[] order = new Integer[items.size()];
+        for(int i = 0; i < order.length; i++)
+            order[i] = i;
+        if(nThreads > 1)
+        {
+            // longest processing time first
+            Arrays.sort(order, new Comparator<Integer>()
+            {
+                @Override public int compare(Integer i1, Integer i2)
+                {
+                    return Double.compare(items.get(i2).cost, items.get(i1).cost);
+                }
+            });
+        }
+        
+        final BatchRun run = new BatchRun(items, order, maxItemProcessTime);
+        for(int i = 0; i < Math.min(Math.max(nThreads, 1), order.length); i++)
+            run.startWorker();
+        
+        try
+        {
+            for(int i = 0; i < order.length; i++)
+            {
+                final String output = run.await(i);
+                if(output == null)
+                    break;
+                updateUI(++progress/total, items.get(i).finish(output));
+            }
+        }
+        catch(InterruptedException e) {}
+        finally
+        {
+            run.stop();
+        }
+    }
+    
+    /**
+     * The worker threads of a batch run. Each worker takes the next item in order and runs it within its 
+     * time budget. The thread running the batch watches the workers while it waits for the outputs: 
+     * a worker whose item is still running ITEM_STOP_GRACE_TIME after its budget has passed
+     * (e.g. inside a parser that cannot be interrupted) is interrupted and abandoned along with its item, 
+     * and a new worker takes its place, so only abandoned items keep a thread of their own.
+     */
+    private final class BatchRun
+    {
+        BatchRun(List<BatchItem> items, Integer[] order, long timeout)
+        {
+            this.items = items;
+            this.order = order;
+            this.timeout = timeout;
+            this.outputs = new String[items.size()];
+        }
+        
+        synchronized void startWorker()
+        {
+            final Worker w = new Worker();
+            w.thread = new Thread(w, "GrammarTools batch worker");
+            workers.add(w);
+            w.thread.start();
+        }
+        
+        /**
+         * Waits for the output of an item, abandoning the items that have run out of time meanwhile.
+         * @return the output of the item, or null if the run has been cancelled
+         */
+        synchronized String await(int i)
+                throws InterruptedException
+        {
+            while(outputs[i] == null)
+            {
+                if(isCancelledUI())
+                    return null;
+                abandonOverdueItems();
+                wait(BATCH_WATCH_INTERVAL);
+            }
+            return outputs[i];
+        }
+        
+        /**
+         * Stops the workers: they finish their current item, which will stop at its next check, and take no more.
+         */
+        synchronized void stop()
+        {
+            stopped = true;
+            for(Worker w : workers)
+                w.thread.interrupt();
+        }
+        
+        private void abandonOverdueItems()
+        {
+            if(timeout <= 0)
+                return;
+            
+            final long now = System.currentTimeMillis();
+            int nReplacements = 0;
+            for(Iterator<Worker> it = workers.iterator(); it.hasNext(); )
+            {
+                final Worker w = it.next();
+                if(w.item >= 0 && now - w.started > timeout + ITEM_STOP_GRACE_TIME)
+                {
+                    it.remove();
+                    w.abandoned = true;
+                    outputs[w.item] = items.get(w.item).toString() + " <operation timed out>";
+                    w.thread.interrupt();
+                    synchronized(abandonedItems)
+                    {
+                        abandonedItemCount++;
+                        abandonedItems.add(w.thread);
+                    }
+                    if(next < order.length)
+                        nReplacements++;
+                }
+            }
+            // started after iterating, as the new workers are added to the list
+            for(; nReplacements > 0; nReplacements--)
+                startWorker();
+        }
+        
+        private final class Worker implements Runnable
+        {
+            @Override public void run()
+            {
+                while(true)
+                {
+                    final int i;
+                    synchronized(BatchRun.this)
+                    {
+                        if(stopped || next >= order.length)
+                        {
+                            workers.remove(this);
+                            return;
+                        }
+                        i = order[next++];
+                        item = i;
+                        started = System.currentTimeMillis();
+                    }
+                    
+                    final BatchItem bi = items.get(i);
+                    String output;
+                    Deadline.begin(timeout);
+                    try 
+                    { 
+                        bi.run();
+                        output = bi.toString();
+                    }
+                    catch(RuntimeException e)
+                    {
+                        e.printStackTrace();
+                        output = bi.toString() + " <error: " + e + ">";
+                    }
+                    finally 
+                    { 
+                        Deadline.end(); 
+                    }
+                    
+                    synchronized(BatchRun.this)
+                    {
+                        // an abandoned item has been reported already
+                        if(abandoned)
+                            return;
+                        outputs[i] = output;
+                        item = -1;
+                        BatchRun.this.notifyAll();
+                    }
+                }
+            }
+            
+            Thread thread;
+            int item = -1;          // index of the item being run, or -1; guarded by BatchRun.this
+            long started;           // guarded by BatchRun.this
+            boolean abandoned;      // guarded by BatchRun.this
+        }
+        
+        private final List<BatchItem> items;
+        private final Integer[] order;
+        private final long timeout;
+        private final String[] outputs;                                 // guarded by this
+        private final List<Worker> workers = new ArrayList<Worker>();   // guarded by this
+        private int next;                                               // position in order; guarded by this
+        private boolean stopped;                                        // guarded by this
+    }
+    
+    /**
+     * @return the number of items that were abandoned because they ran out of time
+     */
+    public int getAbandonedItemCount()
+    {
+        synchronized(abandonedItems)
+        {
+            return abandonedItemCount;
+        }
+    }
+    
+    /**
+     * @return the number of abandoned items whose threads have not finished yet
+     */
+    public int getRunningAbandonedItemCount()
+    {
+        synchronized(abandonedItems)
+        {
+            for(Iterator<Thread> it = abandonedItems.iterator(); it.hasNext(); )
+            {
+                if(!it.next().isAlive())
+                    it.remove();
+            }
+            return abandonedItems.size();
+        }
+    }
+    
     
     public static class TagOptions
     {
@@ -139,24 +436,18 @@ public class GrammarTools
     }
     public void runTagTool(final String input, final TagOptions o)
     {
-        for(final Toolkit kit : new Toolkit[]{opennlpToolkit, stanfordToolkit})
+        for(final Toolkit kit : new Toolkit[]{core.opennlpToolkit, core.stanfordToolkit})
         {
             final String[] sentences = kit.sentenceSplitter.split( input );
-            final double total = sentences.length;
-            long progress = 0;
+            final List<BatchItem> items = new ArrayList<BatchItem>();
 
-            updateUI(progress/total, kit + "\n");
+            updateUI(0, kit + "\n");
 
             for( final String sentence : sentences )
             {
-                if(isCancelledUI())
-                    break;
-
-                final Runnable r = 
-                new Runnable() 
+                items.add(
+                new BatchItem(0) 
                 {
-                    private String output = "";
-                    @Override public String toString() { return output; }
                     @Override public void run()
                     {
                         try
@@ -174,25 +465,10 @@ public class GrammarTools
                             e.printStackTrace();
                         }
                     }
-                };
-      
-                String output = "";
-                final Thread t = new Thread(r);
-                t.start();
-                try 
-                {
-                    t.join(o.maxItemProcessTime); 
-                    output = r.toString();
-                    if(t.isAlive())
-                    {
-                        output += " <operation timed out>";
-                        t.interrupt();
-                    }
-                }
-                catch(InterruptedException e) {}
-                
-                updateUI(++progress/total, output);
+                });
             }
+            
+            runBatch(items, 1, o.maxItemProcessTime);
         }
     }
     
@@ -206,24 +482,18 @@ public class GrammarTools
     }
     public void runChunkTool(final String input, final ChunkOptions o)
     {
-        for(final Toolkit kit : new Toolkit[]{opennlpToolkit})
+        for(final Toolkit kit : new Toolkit[]{core.opennlpToolkit})
         {
             final String[] sentences = kit.sentenceSplitter.split( input );
-            final double total = sentences.length;
-            long progress = 0;
+            final List<BatchItem> items = new ArrayList<BatchItem>();
 
-            updateUI(progress/total, kit + "\n");
+            updateUI(0, kit + "\n");
 
             for( final String sentence : sentences )
             {
-                if(isCancelledUI())
-                    break;
-
-                final Runnable r = 
-                new Runnable() 
+                items.add(
+                new BatchItem(0) 
                 {
-                    private String output = "";
-                    @Override public String toString() { return output; }
                     @Override public void run()
                     {
                         try
@@ -233,34 +503,24 @@ public class GrammarTools
 
                             for( Tagging tagging : taggings )
                             {
+                                Deadline.check();
                                 Chunking chunking = kit.chunker.chunk( tagging.tokens, tagging.tags );
                                 output += (o.showProbs ? chunking.toString( o.probPrecision ) : chunking.toString()) + "\n";
                             }
                         }
+                        catch(Deadline.ExceededException e)
+                        {
+                            output += " <operation timed out>";
+                        }
                         catch(Exception e)
                         {
                             e.printStackTrace();
                         }
                     }
-                };
-
-                String output = "";
-                final Thread t = new Thread(r);
-                t.start();
-                try 
-                { 
-                    t.join(o.maxItemProcessTime); 
-                    output = r.toString();
-                    if(t.isAlive())
-                    {
-                        output += " <operation timed out>";
-                        t.interrupt();
-                    }
-                }
-                catch(InterruptedException e) {}
-                
-                updateUI(++progress/total, output);
+                });
             }
+            
+            runBatch(items, 1, o.maxItemProcessTime);
         }
     }
     
@@ -273,24 +533,18 @@ public class GrammarTools
     }
     public void runParseTool(final String input, final ParseOptions o)
     {
-        for(final Toolkit kit : new Toolkit[]{opennlpToolkit, stanfordToolkit})
+        for(final Toolkit kit : new Toolkit[]{core.opennlpToolkit, core.stanfordToolkit})
         {
             final String[] sentences = kit.sentenceSplitter.split( input );
-            final double total = sentences.length;
-            long progress = 0;
+            final List<BatchItem> items = new ArrayList<BatchItem>();
 
-            updateUI(progress/total, kit + "\n");
+            updateUI(0, kit + "\n");
 
             for( final String sentence : sentences )
             {
-                if(isCancelledUI())
-                    break;
-
-                final Runnable r = 
-                new Runnable() 
+                items.add(
+                new BatchItem(0) 
                 {
-                    private String output = "";
-                    @Override public String toString() { return output; }
                     @Override public void run()
                     {
                         try
@@ -308,30 +562,23 @@ public class GrammarTools
                                 output += ptree.toString() + "\n";
                             }
                         }
+                        catch(Deadline.ExceededException e)
+                        {
+                            output += " <operation timed out>";
+                        }
                         catch(Exception e)
                         {
                             e.printStackTrace();
                         }
                     }
-                };
-                
-                String output = "";
-                final Thread t = new Thread(r);
-                t.start();
-                try 
-                { 
-                    t.join(o.maxItemProcessTime); 
-                    output = r.toString();
-                    if(t.isAlive())
+                    @Override protected String finish(String output)
                     {
-                        output += " <operation timed out>";
-                        t.interrupt();
+                        return output + "\n";
                     }
-                }
-                catch(InterruptedException e) {}
-                
-                updateUI(++progress/total, output+"\n");
+                });
             }
+            
+            runBatch(items, 1, o.maxItemProcessTime);
         }
     }
 
@@ -339,21 +586,22 @@ public class GrammarTools
     {
         public String functionScript;
         public String grammarFile;
+        public String screenGrammarFile;    // cheaper grammar accepting a superset of grammarFile, checked first, or null
+        public String verdictFile;          // DCG verdicts kept between runs, or null to keep them for this session only
         public long maxItemProcessTime = DEF_MAX_ITEM_PROCESS_TIME; // millseconds, 0 is infinite
+        public int maxSentenceLength = DEF_MAX_SENTENCE_LENGTH;     // tokens before segmenting, 0 is infinite
     }
     public void runFunctionTool(final String input, final FunctionOptions o)
     {
-        final String[] sentences = stanfordToolkit.sentenceSplitter.split( input );
-        final double total = sentences.length;
+        final String[] sentences = core.stanfordToolkit.sentenceSplitter.split( input );
         final DecimalFormat formatter = new DecimalFormat("0.###");
-        long progress = 0;
 
-        Prolog engine = null;
+        Grammar engine = null;
         if(o.grammarFile != null && !o.grammarFile.isEmpty())
         {
             try
             {
-                engine = createGrammar(o.grammarFile);
+                engine = createGrammar(o.grammarFile, o.screenGrammarFile, o.verdictFile);
             }
             catch(Exception ex)
             {
@@ -364,27 +612,24 @@ public class GrammarTools
             }
         }
 
-        final Prolog grammar = engine;
+        final Grammar grammar = engine;
+        final VariantCache variantCache = new VariantCache(VARIANT_CACHE_SIZE);
         
+        final List<BatchItem> items = new ArrayList<BatchItem>();
         for( final String sentence : sentences )
         {
-            if(isCancelledUI())
-                break;
-                
-            final Runnable r = 
-            new Runnable() 
+            items.add(
+            new BatchItem(0) 
             {
-                private String output = "";
-                @Override public String toString() { return output; }
                 @Override public void run()
                 {
                     try
                     {
-                        final SentenceInstance si = generateSentenceInstance(sentence, 0, getDefaultFunctionScript(), grammar);
+                        final SentenceInstance si = generateSentenceInstance(sentence, 0, getDefaultFunctionScript(), grammar, variantCache, o.maxSentenceLength);
                         final ScriptEngine scriptEngine = new ScriptEngineManager().getEngineByName("JavaScript");
                         scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE).putAll(si.getAttributes());
                         
-                        output += sentence;
+                        output += sentence + (Deadline.isExpired() ? " <partial: time budget exceeded>" : "");
                         try
                         {
                             Double result = (Double)scriptEngine.eval(o.functionScript);
@@ -417,25 +662,12 @@ public class GrammarTools
                         e.printStackTrace();
                     }
                 }
-            };
-
-            String output = "";
-            final Thread t = new Thread(r);
-            t.start();
-            try 
-            { 
-                t.join(o.maxItemProcessTime); 
-                output = r.toString();
-                if(t.isAlive())
-                {
-                    output += " <operation timed out>";
-                    t.interrupt();
-                }
-            }
-            catch(InterruptedException e) {}
-
-            updateUI(++progress/total, output);
+            });
         }
+        
+        runBatch(items, 1, o.maxItemProcessTime);
+        
+        finishGrammar(grammar, o.verdictFile);
     }
                
     public static String getDefaultFunctionScript()
@@ -458,9 +690,13 @@ public class GrammarTools
     {
         public static enum OutputFormat { ARFF, CSV }
         public long maxItemProcessTime = DEF_MAX_ITEM_PROCESS_TIME; // millseconds, 0 is infinite
+        public int maxSentenceLength = DEF_MAX_SENTENCE_LENGTH;     // tokens before segmenting, 0 is infinite
+        public int nThreads = DEF_THREADS;                          // sentences processed at the same time, longest first
         public double nGrammaticalErrorsPerSentence;   // if using binary attributes: 0 = correct, otherwise incorrect
         public String functionScript;
         public String grammarFile;
+        public String screenGrammarFile;    // cheaper grammar accepting a superset of grammarFile, checked first, or null
+        public String verdictFile;          // DCG verdicts kept between runs, or null to keep them for this session only
         public boolean useNumericAttrib;
         public boolean useBinaryAttrib;
         public boolean isAppending;
@@ -474,7 +710,7 @@ public class GrammarTools
         boolean isAppending = o.isAppending;
         final String outputFile = o.outputFile;
 
-        final String[] sentences = stanfordToolkit.sentenceSplitter.split( input );
+        final String[] sentences = core.stanfordToolkit.sentenceSplitter.split( input );
         final Instances data;
         final FileOutputStream fos;
         final AbstractFileSaver saver = 
@@ -510,24 +746,26 @@ public class GrammarTools
         saver.setStructure(data);
         saver.setRetrieval(weka.core.converters.Saver.INCREMENTAL);
         
+        final SentenceInstance.WekaConverter converter = new SentenceInstance.WekaConverter(data);
+        
         // if appending, we don't want the saver to write the header, so dump it to a dummy stream
         if(isAppending)
         {
             OutputStream sink = new OutputStream() { @Override public void write( int b ) throws IOException { } };
             saver.setDestination(sink);
-            saver.writeIncremental(new SentenceInstance().toWekaInstance(data));
+            saver.writeIncremental(converter.toWekaInstance(new SentenceInstance()));
             saver.getWriter().close();
             sink.close();
         }
 
         saver.setDestination(fos);
         
-        Prolog engine = null;
+        Grammar engine = null;
         if(o.grammarFile != null && !o.grammarFile.isEmpty())
         {
             try
             {
-                engine = createGrammar(o.grammarFile);
+                engine = createGrammar(o.grammarFile, o.screenGrammarFile, o.verdictFile);
             }
             catch(Exception ex)
             {
@@ -538,88 +776,194 @@ public class GrammarTools
             }
         }
 
-        final Prolog grammar = engine;
-        final double total = sentences.length;
-        long progress = 0;
+        final Grammar grammar = engine;
+        final VariantCache variantCache = new VariantCache(VARIANT_CACHE_SIZE);
+        final List<BatchItem> items = new ArrayList<BatchItem>(sentences.length);
 
-        updateUI(progress/total, "");
+        updateUI(0, "");
+        
+        if(isAppending && !converter.getUnmappedAttributes().isEmpty())
+        {
+            updateUI(0, "<Attributes missing from the existing data set will be dropped: " 
+                        + converter.getUnmappedAttributes() + ">\n");
+        }
 
         for( final String sentence : sentences )
         {
-            if(isCancelledUI())
-                break;
-
-            final Runnable r = 
-            new Runnable() 
+            items.add(
+            new BatchItem(estimateCost(sentence)) 
             {
-                private String output = "";
-                @Override public String toString() { return output; }
+                private volatile Instance instance;
                 @Override public void run()
                 {
                     try
                     {
-                        final SentenceInstance si = generateSentenceInstance(sentence, nGrammaticalErrors, o.functionScript, grammar);
-                        final Instance i = si.toWekaInstance(data);
-                        i.setDataset(data);
-                        data.add(i);
-
-                        output += sentence + "\n" + si;
-
-                        //saver.writeBatch();
-                        saver.writeIncremental(i);
+                        final SentenceInstance si = generateSentenceInstance(sentence, nGrammaticalErrors, o.functionScript, grammar, variantCache, o.maxSentenceLength);
+                        instance = converter.toWekaInstance(si);
+                        
+                        output += sentence + (Deadline.isExpired() ? " <partial: time budget exceeded>" : "") + "\n" + si;
                     }
                     catch(Exception e)
                     {
                         e.printStackTrace(System.err);
                     }
                 }
-            };
-
-            String output = "";
-            final Thread t = new Thread(r);
-            t.start();
-            try 
-            { 
-                t.join(o.maxItemProcessTime); 
-                output = r.toString();
-                if(t.isAlive())
+                @Override protected String finish(String output)
                 {
-                    output += " <operation timed out>";
-                    t.interrupt();
-                }
-            }
-            catch(InterruptedException e) {}
+                    // rows are written here, in order, and an abandoned item only has a row if it has finished by now
+                    if(instance != null)
+                    {
+                        try
+                        {
+                            instance.setDataset(data);
+                            data.add(instance);
 
-            updateUI(++progress/total, output + "\n\n");
+                            //saver.writeBatch();
+                            saver.writeIncremental(instance);
+                        }
+                        catch(IOException e)
+                        {
+                            e.printStackTrace(System.err);
+                        }
+                    }
+                    return output + "\n\n";
+                }
+            });
         }
         
+        runBatch(items, o.nThreads, o.maxItemProcessTime);
+        
         saver.getWriter().close();
         fos.close();
+        
+        finishGrammar(grammar, o.verdictFile);
     }
     
     
     /**
      * Create a set of sentence features from a sentence.
+     * Sentences longer than maxSentenceLength tokens are split at clause or punctuation boundaries,
+     * features are generated for each segment, and then aggregated over the segments.
      * @param sentence  the sentence to create features for
      * @param nGrammaticalErrors number of grammatical errors in the sentence
      * (values of zero vs non-zero can be used if using only for binary class)
+     * @param variantCache variants already analyzed for other sentences of the batch, or null
+     * @param maxSentenceLength number of tokens above which the sentence is segmented (0 is infinite)
      * @return  the Weka Instance generated from sentence features
      */
-    private SentenceInstance generateSentenceInstance(String sentence, double nGrammaticalErrors, String functionScript, Prolog grammar)
+    private SentenceInstance generateSentenceInstance(String sentence, double nGrammaticalErrors, String functionScript, Grammar grammar, VariantCache variantCache, int maxSentenceLength)
     {
-        final Tokenizer   tokenizer         = stanfordToolkit.tokenizer; // opennlpToolkit.tokenizer;
+        final Tokenizer   tokenizer         = core.stanfordToolkit.tokenizer; // core.opennlpToolkit.tokenizer;
         final String[]    tokens            = tokenizer.tokenize(sentence);
-        final Tagging[]   opennlpTaggings   = opennlpToolkit.tagger.tag(tokens, 2);
-        final Tagging[]   stanfordTaggings  = stanfordToolkit.tagger.tag(tokens, 2);
-        final ParseTree[] stanfordParses    = stanfordToolkit.parser.parse(tokens, 2);
-        final ParseTree[] opennlpParses     = opennlpToolkit.parser.parse(tokens, 2);
-        final ScriptEngine jsEngine         = new ScriptEngineManager().getEngineByName("JavaScript");
+        
+        if(maxSentenceLength <= 0 || tokens.length <= maxSentenceLength)
+            return generateSentenceInstance(tokens, nGrammaticalErrors, functionScript, grammar, variantCache);
+        
+        final List<SentenceInstance> segments = new ArrayList<SentenceInstance>();
+        for(String[] segment : toSegments(tokens, maxSentenceLength))
+            segments.add(generateSentenceInstance(segment, nGrammaticalErrors, functionScript, grammar, variantCache));
+        
+        final SentenceInstance si = SentenceInstance.aggregate(segments);
+        si.isGrammatical = SentenceInstance.toBoolNominalIndex(nGrammaticalErrors == 0);
+        si.nGrammaticalErrors = nGrammaticalErrors;
+        si.nTokens = tokens.length;
+        
+        // function values are computed over the aggregated attributes
+        try
+        {
+            final ScriptEngine jsEngine = new ScriptEngineManager().getEngineByName("JavaScript");
+            jsEngine.getBindings(ScriptContext.ENGINE_SCOPE).putAll(si.getAttributes());
+            Double result = (Double)jsEngine.eval(functionScript);
+            if(result != null)
+                si.funcValue = result;
+        }
+        catch(Exception e) { e.printStackTrace(); }
+        
+        return si;
+    }
+    
+    /**
+     * Splits a long token sequence into segments of at most maxLength tokens.
+     * Segments end after clause punctuation (, : ;) or before a coordinating conjunction or wh-word
+     * when possible, otherwise they are cut at maxLength.
+     * Each segment is terminated with a period and capitalized so it can be analyzed as a sentence.
+     * @param tokens    the tokens of the sentence
+     * @param maxLength maximum number of tokens in a segment
+     * @return the segments of the sentence
+     */
+    private List<String[]> toSegments(String[] tokens, int maxLength)
+    {
+        final CompactTagging tagging = core.opennlpToolkit.tagger.tagCompact(tokens);
+        final List<String[]> segments = new ArrayList<String[]>();
+        
+        int start = 0;
+        while(start < tokens.length)
+        {
+            int end = Math.min(start + maxLength, tokens.length);
+            if(end < tokens.length)
+            {
+                // find the last boundary leaving a segment of a reasonable length
+                for(int i = end; i >= start + MIN_SEGMENT_LENGTH; i--)
+                {
+                    final String prev = tagging.getTag(i-1);
+                    final String next = tagging.getTag(i);
+                    if(prev.equals(",") || prev.equals(":") || next.equals("CC")
+                    || next.equals("WDT") || next.equals("WP") || next.equals("WRB"))
+                    {
+                        end = i;
+                        break;
+                    }
+                }
+            }
+            
+            final List<String> segment = new ArrayList<String>(Arrays.asList(tokens).subList(start, end));
+            final String last = segment.get(segment.size()-1);
+            if(last.equals(",") || last.equals(":") || last.equals(";") || last.equals("--"))
+                segment.set(segment.size()-1, ".");
+            else if(!last.equals(".") && !last.equals("?") && !last.equals("!"))
+                segment.add(".");
+            
+            final String first = segment.get(0);
+            segment.set(0, Character.toUpperCase(first.charAt(0)) + (first.length() < 2 ? "" : first.substring(1)));
+            
+            segments.add(segment.toArray(new String[0]));
+            start = end;
+        }
+        
+        return segments;
+    }
+    
+    /**
+     * Create a set of sentence features from a tokenized sentence.
+     * Features are generated in groups in order of priority: base taggings and parses, cross-toolkit comparisons,
+     * swaps & omits, verb changes, min changes, simplified clauses, function value, and DCG parsability.
+     * Once the current thread's time budget ({@link Deadline}) is exhausted no further groups are started,
+     * a group that runs out of time is rolled back, and the attributes of the groups not generated are left unknown.
+     */
+    private SentenceInstance generateSentenceInstance(final String[] tokens, double nGrammaticalErrors, final String functionScript, final Grammar grammar, final VariantCache variantCache)
+    {
         final SentenceInstance si           = new SentenceInstance();
+        final Tagging[]   opennlpTaggings;
+        final Tagging[]   stanfordTaggings;
+        final ParseTree[] stanfordParses;
+        final ParseTree[] opennlpParses;
 
         si.isGrammatical = SentenceInstance.toBoolNominalIndex(nGrammaticalErrors == 0);
         si.nGrammaticalErrors = nGrammaticalErrors;
         si.nTokens = tokens.length;
 
+        try
+        {
+            opennlpTaggings   = core.opennlpToolkit.tagger.tag(tokens, 2);
+            stanfordTaggings  = core.stanfordToolkit.tagger.tag(tokens, 2);
+            stanfordParses    = core.stanfordToolkit.parser.parse(tokens, 2);
+            opennlpParses     = core.opennlpToolkit.parser.parse(tokens, 2);
+        }
+        catch(Deadline.ExceededException e)
+        {
+            return si;
+        }
+
         if(si.nTokens == 0 || opennlpTaggings.length == 0)
             return si;
 
@@ -801,27 +1145,259 @@ public class GrammarTools
             si.opennlpStanfordCrossDeltaParseProb = opennlpParses[0].getProb() - stanfordParses[0].getProb();
         }
         
+        final int iMin = iMinPTag;
+        final OpenNLPParseTree opennlpParse = opennlpParses.length == 0 ? null : (OpenNLPParseTree)opennlpParses[0];
+        final StanfordParseTree stanfordParse = stanfordParses.length == 0 ? null : (StanfordParseTree)stanfordParses[0];
+        
+        // mutated token sequences are parsed once, however many attribute groups ask for them
+        final SentenceVariants variants = new SentenceVariants(variantCache);
+        if(opennlpParse != null && stanfordParse != null)
+            variants.put(tokens, opennlpTaggings[0], opennlpParse, stanfordParse);
+        
+        // swaps & omits
+        generateSentenceInstanceAttributeGroup(si, 
+        new Runnable() 
+        {
+            @Override public void run() { generateSentenceInstanceSwapOmitAttributes(si, tokens, iMin, opennlpParse, stanfordParse, variants); }
+        });
+        
         // calculate probs after various sentence mutations
-        if(opennlpParses.length > 0)
+        if(opennlpParse != null)
         {
-            generateSentenceInstanceVerbChangeAttributes(
-                    si, opennlpTaggings[0],
-                    (OpenNLPParseTree)opennlpParses[0],
-                    (StanfordParseTree)(stanfordParses.length == 0 ? null : stanfordParses[0]));
-
-            generateSentenceInstanceMinChangeAttributes(
-                    si, iMinPTag, 
-                    (OpenNLPParseTree)opennlpParses[0],
-                    (StanfordParseTree)(stanfordParses.length == 0 ? null : stanfordParses[0]));
+            generateSentenceInstanceAttributeGroup(si, 
+            new Runnable() 
+            {
+                @Override public void run() { generateSentenceInstanceVerbChangeAttributes(si, opennlpTaggings[0], opennlpParse, stanfordParse, variants); }
+            });
+            
+            generateSentenceInstanceAttributeGroup(si, 
+            new Runnable() 
+            {
+                @Override public void run() { generateSentenceInstanceMinChangeAttributes(si, iMin, opennlpParse, stanfordParse, variants); }
+            });
 
             // opennlp simplified clause attributes
-            generateSentenceInstanceSimplifiedClauseAttributes(si, opennlpParses[0]);
+            generateSentenceInstanceAttributeGroup(si, 
+            new Runnable() 
+            {
+                @Override public void run() { generateSentenceInstanceSimplifiedClauseAttributes(si, opennlpParse, variants); }
+            });
         }
         
-        // swaps & omits
-        if(tokens.length > 1)
+        // calculate function values
+        generateSentenceInstanceAttributeGroup(si, 
+        new Runnable() 
+        {
+            @Override public void run()
+            {
+                try
+                {
+                    final ScriptEngine jsEngine = new ScriptEngineManager().getEngineByName("JavaScript");
+                    jsEngine.getBindings(ScriptContext.ENGINE_SCOPE).putAll(si.getAttributes());
+                    Double result = (Double)jsEngine.eval(functionScript);
+                    if(result != null)
+                        si.funcValue = result;
+                }
+                catch(Exception e) { e.printStackTrace(); }
+            }
+        });
+        
+        // query all POS tags against grammar
+        if(opennlpParse != null && grammar != null)
+        {
+            generateSentenceInstanceAttributeGroup(si, 
+            new Runnable() 
+            {
+                @Override public void run()
+                {
+                    try
+                    {
+                        // left unknown if the query ran out of budget
+                        final Boolean isParsable = grammar.isParsable(opennlpParse.getValue(), opennlpParse.getPosTags());
+                        if(isParsable != null)
+                            si.isDCGParsable = SentenceInstance.toBoolNominalIndex(isParsable);
+                    }
+                    catch(Exception e) { e.printStackTrace(); }
+                }
+            });
+        }
+        /*
+        if(stanfordParses.length > 0)
+        {
+            ParseTree p = stanfordParses[0];
+            boolean isDCGparsable = queryGrammar(
+                GrammarTools.toGrammarTerm(p.getValue()),
+                GrammarTools.toGrammarTerms(p.getPosTags()));
+            si.isDCGParsable = SentenceInstance.toBoolNominalIndex(isDCGparsable);
+        }
+        */
+                
+        return si;
+    }
+    
+    /**
+     * Generates a group of sentence attributes if there is time left in the current thread's budget.
+     * If the budget runs out while the group is being generated, the attributes are restored to
+     * their values before the group started.
+     * @param si    the instance the group sets attributes of
+     * @param group generates the attributes
+     */
+    private void generateSentenceInstanceAttributeGroup(SentenceInstance si, Runnable group)
+    {
+        if(Deadline.isExpired())
+            return;
+        
+        final SentenceInstance before = new SentenceInstance(si);
+        try
+        {
+            group.run();
+        }
+        catch(Deadline.ExceededException e)
+        {
+            si.set(before);
+        }
+    }
+    
+    /**
+     * The variants of a sentence (token sequences produced by mutating it) needed by its attribute groups.
+     * A group adds the variants it needs, evaluates them, then reads their parses;
+     * a token sequence is parsed only once however often, and by however many groups, it is added.
+     */
+    private final class SentenceVariants
+    {
+        /**
+         * @param cache variants already evaluated for other sentences of the batch, or null
+         */
+        SentenceVariants(VariantCache cache)
+        {
+            this.cache = cache;
+        }
+        
+        /**
+         * Adds a variant that has already been analyzed, e.g. the unchanged sentence.
+         * @param tokens        the tokens of the variant, which must not be modified afterwards
+         * @param tagging       the tagging of the tokens
+         * @param opennlpParse  the best OpenNLP parse of the tokens
+         * @param stanfordParse the best Stanford parse of the tokens
+         */
+        void put(String[] tokens, Tagging tagging, OpenNLPParseTree opennlpParse, StanfordParseTree stanfordParse)
         {
-            final int i = iMinPTag;
+            final Variant v = new Variant(tokens);
+            v.tagging       = tagging;
+            v.opennlpParse  = opennlpParse;
+            v.stanfordParse = stanfordParse;
+            variants.put(Arrays.asList(tokens), v);
+            if(cache != null)
+                cache.put(v);
+        }
+        
+        /**
+         * Adds a variant to be evaluated.
+         * @param tokens    the tokens of the variant, which must not be modified afterwards
+         * @return          the variant, shared with earlier callers that added the same tokens
+         */
+        Variant add(String[] tokens)
+        {
+            final List<String> key = Arrays.asList(tokens);
+            Variant v = variants.get(key);
+            if(v == null)
+            {
+                v = cache == null ? null : cache.get(key);
+                if(v == null)
+                {
+                    v = new Variant(tokens);
+                    pending.add(v);
+                }
+                variants.put(key, v);
+            }
+            return v;
+        }
+        
+        /**
+         * Parses all variants added since the last evaluation.
+         */
+        void evaluate()
+        {
+            while(!pending.isEmpty())
+            {
+                Deadline.check();
+                final Variant v = pending.getFirst();
+                v.opennlpParse  = (OpenNLPParseTree)  core.opennlpToolkit.parser.parse(v.tokens);
+                v.stanfordParse = (StanfordParseTree) core.stanfordToolkit.parser.parse(v.tokens);
+                pending.removeFirst();
+                if(cache != null)
+                    cache.put(v);
+            }
+        }
+        
+        /**
+         * Gets the OpenNLP tagging of a variant, tagging it the first time it is asked for.
+         * @param v the variant
+         * @return  the tagging of the variant
+         */
+        Tagging getTagging(Variant v)
+        {
+            Tagging tagging = v.tagging;
+            if(tagging == null)
+                v.tagging = tagging = core.opennlpToolkit.tagger.tag(v.tokens);
+            return tagging;
+        }
+        
+        private final VariantCache cache;
+        private final Map<List<String>, Variant> variants = new HashMap<List<String>, Variant>();
+        private final LinkedList<Variant> pending = new LinkedList<Variant>();
+    }
+    
+    private static final class Variant
+    {
+        private Variant(String[] tokens)
+        {
+            this.tokens = tokens;
+        }
+        
+        final String[] tokens;
+        OpenNLPParseTree opennlpParse;
+        StanfordParseTree stanfordParse;
+        volatile Tagging tagging;   // set lazily, and possibly by several threads once cached
+    }
+    
+    /**
+     * Variants evaluated while processing a batch of sentences, so that clauses (and their mutations)
+     * recurring across the sentences of a batch are analyzed once.
+     * The least recently used variants are dropped once the cache is full. Thread-safe.
+     */
+    private static final class VariantCache
+    {
+        VariantCache(final int capacity)
+        {
+            variants = new LinkedHashMap<List<String>, Variant>(16, 0.75f, true)
+            {
+                @Override protected boolean removeEldestEntry(Map.Entry<List<String>, Variant> eldest)
+                {
+                    return size() > capacity;
+                }
+            };
+        }
+        
+        synchronized Variant get(List<String> tokens)
+        {
+            return variants.get(tokens);
+        }
+        
+        synchronized void put(Variant v)
+        {
+            variants.put(Arrays.asList(v.tokens), v);
+        }
+        
+        private final Map<List<String>, Variant> variants;
+    }
+    
+    private void generateSentenceInstanceSwapOmitAttributes(SentenceInstance si, String[] tokens, int iMin, OpenNLPParseTree opennlpParse, StanfordParseTree stanfordParse, SentenceVariants variants)
+    {
+        if(tokens.length > 1 && iMin >= 0)
+        {
+            final int i = iMin;
+            Variant swapMinLeft = null, swapMinRight = null, omitMin = null, omitMinLeft = null, omitMinRight = null;
             
             // swap min tag left
             if(i > 0)
@@ -839,15 +1415,8 @@ public class GrammarTools
                     newTokens[0] = Character.toUpperCase(t0.charAt(0)) + (t0.length() < 2 ? "" : t0.substring(1));
                     newTokens[1] = Character.toLowerCase(t1.charAt(0)) + (t1.length() < 2 ? "" : t1.substring(1));
                 }
-                                
-                ParseTree newParse;
-                newParse = opennlpToolkit.parser.parse(newTokens);
-                if(newParse != null && opennlpParses.length > 0)
-                    si.opennlpDeltaParseProbSwapMinLeft = opennlpParses[0].getProb() - newParse.getProb();
                 
-                newParse = stanfordToolkit.parser.parse(newTokens);
-                if(newParse != null && stanfordParses.length > 0)
-                    si.stanfordDeltaParseProbSwapMinLeft = stanfordParses[0].getProb() - newParse.getProb();
+                swapMinLeft = variants.add(newTokens);
             }
             // swap min tag right
             if(i < tokens.length-1)
@@ -866,14 +1435,7 @@ public class GrammarTools
                     newTokens[1] = Character.toLowerCase(t1.charAt(0)) + (t1.length() < 2 ? "" : t1.substring(1));
                 }
                 
-                ParseTree newParse;
-                newParse = opennlpToolkit.parser.parse(newTokens);
-                if(newParse != null && opennlpParses.length > 0)
-                    si.opennlpDeltaParseProbSwapMinRight = opennlpParses[0].getProb() - newParse.getProb();
-                
-                newParse = stanfordToolkit.parser.parse(newTokens);
-                if(newParse != null && stanfordParses.length > 0)
-                    si.stanfordDeltaParseProbSwapMinRight = stanfordParses[0].getProb() - newParse.getProb();
+                swapMinRight = variants.add(newTokens);
             }
             // omit min tag
             if(tokens.length > 1)
@@ -888,15 +1450,7 @@ public class GrammarTools
                     newTokens.set(0, Character.toUpperCase(t0.charAt(0)) + (t0.length() < 2 ? "" : t0.substring(1)));
                 }
 
-                final String[] t = newTokens.toArray(new String[0]);
-                ParseTree newParse;
-                newParse = opennlpToolkit.parser.parse(t);
-                if(newParse != null && opennlpParses.length > 0)
-                    si.opennlpDeltaParseProbOmitMin = opennlpParses[0].getProb() - newParse.getProb();
-                
-                newParse = stanfordToolkit.parser.parse(t);
-                if(newParse != null && stanfordParses.length > 0)
-                    si.stanfordDeltaParseProbOmitMin = stanfordParses[0].getProb() - newParse.getProb();
+                omitMin = variants.add(newTokens.toArray(new String[0]));
             }
             // omit left of min tag
             if(i > 0)
@@ -911,15 +1465,7 @@ public class GrammarTools
                     newTokens.set(0, Character.toUpperCase(t0.charAt(0)) + (t0.length() < 2 ? "" : t0.substring(1)));
                 }
                 
-                final String[] t = newTokens.toArray(new String[0]);
-                ParseTree newParse;
-                newParse = opennlpToolkit.parser.parse(t);
-                if(newParse != null && opennlpParses.length > 0)
-                    si.opennlpDeltaParseProbOmitMinLeft = opennlpParses[0].getProb() - newParse.getProb();
-                
-                newParse = stanfordToolkit.parser.parse(t);
-                if(newParse != null && stanfordParses.length > 0)
-                    si.stanfordDeltaParseProbOmitMinLeft = stanfordParses[0].getProb() - newParse.getProb();
+                omitMinLeft = variants.add(newTokens.toArray(new String[0]));
             }
             // omit right of min tag
             if(i < tokens.length-1)
@@ -927,105 +1473,95 @@ public class GrammarTools
                 final List<String> newTokens = new ArrayList<String>(Arrays.asList(tokens));
                 newTokens.remove(i+1);
                 
-                final String[] t = newTokens.toArray(new String[0]);
-                ParseTree newParse;
-                newParse = opennlpToolkit.parser.parse(t);
-                if(newParse != null && opennlpParses.length > 0)
-                    si.opennlpDeltaParseProbOmitMinRight = opennlpParses[0].getProb() - newParse.getProb();
-                
-                newParse = stanfordToolkit.parser.parse(t);
-                if(newParse != null && stanfordParses.length > 0)
-                    si.stanfordDeltaParseProbOmitMinRight = stanfordParses[0].getProb() - newParse.getProb();
+                omitMinRight = variants.add(newTokens.toArray(new String[0]));
             }
-        }
-        
-        // calculate function values
-        try
-        {
-            jsEngine.getBindings(ScriptContext.ENGINE_SCOPE).putAll(si.getAttributes());
-            Double result = (Double)jsEngine.eval(functionScript);
-            if(result != null)
-                si.funcValue = result;
-        }
-        catch(Exception e) { e.printStackTrace(); }
-        
-        // query all POS tags against grammar
-        
-        if(opennlpParses.length > 0 && grammar != null)
-        {
-            try
+            
+            // parse the distinct variants, then record the changes in parse probs
+            variants.evaluate();
+            
+            if(opennlpParse != null)
+            {
+                if(swapMinLeft != null && swapMinLeft.opennlpParse != null)
+                    si.opennlpDeltaParseProbSwapMinLeft = opennlpParse.getProb() - swapMinLeft.opennlpParse.getProb();
+                if(swapMinRight != null && swapMinRight.opennlpParse != null)
+                    si.opennlpDeltaParseProbSwapMinRight = opennlpParse.getProb() - swapMinRight.opennlpParse.getProb();
+                if(omitMin != null && omitMin.opennlpParse != null)
+                    si.opennlpDeltaParseProbOmitMin = opennlpParse.getProb() - omitMin.opennlpParse.getProb();
+                if(omitMinLeft != null && omitMinLeft.opennlpParse != null)
+                    si.opennlpDeltaParseProbOmitMinLeft = opennlpParse.getProb() - omitMinLeft.opennlpParse.getProb();
+                if(omitMinRight != null && omitMinRight.opennlpParse != null)
+                    si.opennlpDeltaParseProbOmitMinRight = opennlpParse.getProb() - omitMinRight.opennlpParse.getProb();
+            }
+            
+            if(stanfordParse != null)
             {
-                ParseTree p = opennlpParses[0];
-                SolveInfo query = queryGrammar(grammar, p.getValue(), p.getPosTags());
-                si.isDCGParsable = SentenceInstance.toBoolNominalIndex(query.isSuccess());
+                if(swapMinLeft != null && swapMinLeft.stanfordParse != null)
+                    si.stanfordDeltaParseProbSwapMinLeft = stanfordParse.getProb() - swapMinLeft.stanfordParse.getProb();
+                if(swapMinRight != null && swapMinRight.stanfordParse != null)
+                    si.stanfordDeltaParseProbSwapMinRight = stanfordParse.getProb() - swapMinRight.stanfordParse.getProb();
+                if(omitMin != null && omitMin.stanfordParse != null)
+                    si.stanfordDeltaParseProbOmitMin = stanfordParse.getProb() - omitMin.stanfordParse.getProb();
+                if(omitMinLeft != null && omitMinLeft.stanfordParse != null)
+                    si.stanfordDeltaParseProbOmitMinLeft = stanfordParse.getProb() - omitMinLeft.stanfordParse.getProb();
+                if(omitMinRight != null && omitMinRight.stanfordParse != null)
+                    si.stanfordDeltaParseProbOmitMinRight = stanfordParse.getProb() - omitMinRight.stanfordParse.getProb();
             }
-            catch(Exception e) { e.printStackTrace(); }
         }
-        /*
-        if(stanfordParses.length > 0)
+    }
+    
+    private void addSentenceInstanceMinChangeVariants(Set<Variant> changes, String[] changedTokens, String[] tokens, int iMin, SentenceVariants variants)
+    {
+        // generate changes
+        for(String t : changedTokens)
         {
-            ParseTree p = stanfordParses[0];
-            boolean isDCGparsable = queryGrammar(
-                GrammarTools.toGrammarTerm(p.getValue()),
-                GrammarTools.toGrammarTerms(p.getPosTags()));
-            si.isDCGParsable = SentenceInstance.toBoolNominalIndex(isDCGparsable);
+            if(t != null && !t.equalsIgnoreCase(tokens[iMin]))
+            {
+                final String[] newTokens = tokens.clone();
+                newTokens[iMin] = t;
+                changes.add(variants.add(newTokens));
+            }
         }
-        */
-                
-        return si;
     }
     
-    private void setSentenceInstanceMinChangeAttributes(SentenceInstance si, String[] changes, int iMin, OpenNLPParseTree opennlpParse, StanfordParseTree stanfordParse)
+    private void setSentenceInstanceMinChangeAttributes(SentenceInstance si, Set<Variant> changes, OpenNLPParseTree opennlpParse, StanfordParseTree stanfordParse)
     {
-        final Tagging tagging = opennlpParse.getPosTagging();
-        final String minToken = tagging.tokens[iMin];
-        
-        // generate changes               
-        for(String t : changes)
-        {    
-            if(t != null && !t.equalsIgnoreCase(minToken))
+        // choose the best change
+        for(Variant change : changes)
+        {
+            if(change.opennlpParse != null && opennlpParse != null)
             {
-                ParseTree newParse;
-                String[] newTokens = tagging.tokens.clone();
-                newTokens[iMin] = t;
+                double d = opennlpParse.getProb() - change.opennlpParse.getProb();
+                if(!Double.isNaN(d) && !Double.isInfinite(d))
+                    si.deltaMinChangeOpennlpParseProb = SentenceInstance.minOrValue(si.deltaMinChangeOpennlpParseProb, d);
 
-                // choose the best change seen so far
-                newParse = opennlpToolkit.parser.parse(newTokens);
-                if(newParse != null && opennlpParse != null)
-                {
-                    double d = opennlpParse.getProb() - newParse.getProb();
-                    if(!Double.isNaN(d) && !Double.isInfinite(d))
-                        si.deltaMinChangeOpennlpParseProb = SentenceInstance.minOrValue(si.deltaMinChangeOpennlpParseProb, d);
-                    
-                    d = opennlpParse.getTagSeqProb() - ((OpenNLPParseTree)newParse).getTagSeqProb();
-                    if(!Double.isNaN(d) && !Double.isInfinite(d))
-                        si.deltaMinChangeTagSeqProb = SentenceInstance.minOrValue(si.deltaMinChangeTagSeqProb, d);
-                }
+                d = opennlpParse.getTagSeqProb() - change.opennlpParse.getTagSeqProb();
+                if(!Double.isNaN(d) && !Double.isInfinite(d))
+                    si.deltaMinChangeTagSeqProb = SentenceInstance.minOrValue(si.deltaMinChangeTagSeqProb, d);
+            }
 
-                newParse = stanfordToolkit.parser.parse(newTokens);
-                if(newParse != null && stanfordParse != null)
-                {
-                    double d = stanfordParse.getProb() - newParse.getProb();
-                    if(!Double.isNaN(d) && !Double.isInfinite(d))
-                        si.deltaMinChangeStanfordParseProb = SentenceInstance.minOrValue(si.deltaMinChangeStanfordParseProb, d);
-                }
+            if(change.stanfordParse != null && stanfordParse != null)
+            {
+                double d = stanfordParse.getProb() - change.stanfordParse.getProb();
+                if(!Double.isNaN(d) && !Double.isInfinite(d))
+                    si.deltaMinChangeStanfordParseProb = SentenceInstance.minOrValue(si.deltaMinChangeStanfordParseProb, d);
             }
         }
     }
             
     // calculate probs after various sentence mutations
-    private void generateSentenceInstanceMinChangeAttributes(SentenceInstance si, int iMin, OpenNLPParseTree opennlpParse, StanfordParseTree stanfordParse)
+    private void generateSentenceInstanceMinChangeAttributes(SentenceInstance si, int iMin, OpenNLPParseTree opennlpParse, StanfordParseTree stanfordParse, SentenceVariants variants)
     {        
         final Tagging tagging = opennlpParse.getPosTagging();
         final String minToken = tagging.tokens[iMin];
         final String minTag   = tagging.tags[iMin];
+        final Set<Variant> changes = new LinkedHashSet<Variant>();
         
         switch(getPOSType(minTag))
         {
             case NOUN: 
             {
                 // change plurality
-                setSentenceInstanceMinChangeAttributes(si, new String[] { changePlurality(minToken, minTag) }, iMin, opennlpParse, stanfordParse);
+                addSentenceInstanceMinChangeVariants(changes, new String[] { changePlurality(minToken, minTag) }, tagging.tokens, iMin, variants);
                 
                 // insert articles before the noun
                 String[] insertTokens = new String[] { "a", "the" };
@@ -1044,27 +1580,7 @@ public class GrammarTools
                         newTokens[1] = Character.toLowerCase(t1.charAt(0)) + (t1.length() < 2 ? "" : t1.substring(1));
                     }
 
-                    // choose the best change seen so far
-                    ParseTree newParse;
-                    newParse = opennlpToolkit.parser.parse(newTokens);
-                    if(newParse != null && opennlpParse != null)
-                    {
-                        double d = opennlpParse.getProb() - newParse.getProb();
-                        if(!Double.isNaN(d) && !Double.isInfinite(d))
-                            si.deltaMinChangeOpennlpParseProb = SentenceInstance.minOrValue(si.deltaMinChangeOpennlpParseProb, d);
-                        
-                        d = opennlpParse.getTagSeqProb() - ((OpenNLPParseTree)newParse).getTagSeqProb();
-                        if(!Double.isNaN(d) && !Double.isInfinite(d))
-                            si.deltaMinChangeTagSeqProb = SentenceInstance.minOrValue(si.deltaMinChangeTagSeqProb, d);
-                    }
-                    
-                    newParse = stanfordToolkit.parser.parse(newTokens);
-                    if(newParse != null && stanfordParse != null)
-                    {
-                        double d = stanfordParse.getProb() - newParse.getProb();
-                        if(!Double.isNaN(d) && !Double.isInfinite(d))
-                            si.deltaMinChangeStanfordParseProb = SentenceInstance.minOrValue(si.deltaMinChangeStanfordParseProb, d);
-                    }
+                    changes.add(variants.add(newTokens));
                 }
             }
             break;
@@ -1072,14 +1588,14 @@ public class GrammarTools
             case PRONOUN: 
             {
                 // generate pronoun changes
-                setSentenceInstanceMinChangeAttributes(si,                
+                addSentenceInstanceMinChangeVariants(changes,
                 new String[]
                 {
                     changePlurality(minToken, minTag),
                     changePronounObjectivity(minToken),
                     changePerson(minToken, minTag),
                 },
-                iMin, opennlpParse, stanfordParse);
+                tagging.tokens, iMin, variants);
                 
             }
             break;
@@ -1087,21 +1603,25 @@ public class GrammarTools
             case DETERMINER:
             {
                 // change plurality
-                setSentenceInstanceMinChangeAttributes(si, new String[] { changePlurality(minToken, minTag) }, iMin, opennlpParse, stanfordParse);
+                addSentenceInstanceMinChangeVariants(changes, new String[] { changePlurality(minToken, minTag) }, tagging.tokens, iMin, variants);
             }
             break;
                 
             case VERB:
             {
                 // this is already generated by generateSentenceInstanceVerbChangeAttributes when iMin is a verb
-                //setSentenceInstanceMinChangeAttributes(si, getUniqueVerbForms(minToken), iMin, opennlpParse, stanfordParse);
+                //addSentenceInstanceMinChangeVariants(changes, getUniqueVerbForms(minToken), tagging.tokens, iMin, variants);
             }
             break;
         }
+        
+        // parse the distinct changes, then choose the best
+        variants.evaluate();
+        setSentenceInstanceMinChangeAttributes(si, changes, opennlpParse, stanfordParse);
     }
     
     // calculate probs after various sentence mutations
-    private void generateSentenceInstanceVerbChangeAttributes(SentenceInstance si, Tagging tagging, OpenNLPParseTree opennlpParse, StanfordParseTree stanfordParse)
+    private void generateSentenceInstanceVerbChangeAttributes(SentenceInstance si, Tagging tagging, OpenNLPParseTree opennlpParse, StanfordParseTree stanfordParse, SentenceVariants variants)
     {        
         final Tagging ptagging = opennlpParse.getPosTagging();            
 
@@ -1120,13 +1640,17 @@ public class GrammarTools
         si.totVerbChangeStanfordParseImprove    = 0;
         
         double minPTagProb = Double.MAX_VALUE;
+        
+        // single-token changes can be re-tagged locally, from the tagging of the unchanged sentence
+        final OpenNLPTagger retagger = core.opennlpToolkit.tagger instanceof OpenNLPTagger ? (OpenNLPTagger)core.opennlpToolkit.tagger : null;
+        final Tagging retagBase = Arrays.equals(tagging.tokens, ptagging.tokens) ? tagging : null;
 
-        // calculate changes to probabilities after changing tokens
+        // generate all forms of each verb
+        final Map<Integer, List<Variant>> verbForms = new LinkedHashMap<Integer, List<Variant>>();
         for(int i = 0; i < ptagging.tags.length; i++)
         {
             final String ptoken   = ptagging.tokens[i];
             final String ptag     = ptagging.tags  [i];
-            final double pTagProb = ptagging.probs [i];
 
             // skip if neither the ptag or tag is a verb (and they agree on the same token)
             if(getPOSType(ptag) == POSType.VERB
@@ -1140,11 +1664,35 @@ public class GrammarTools
                 continue;
             }
 
+            // skip the original form, and forms differing only in case from one already seen
+            final Set<String> seen = new HashSet<String>();
+            seen.add(ptoken.toLowerCase());
+            final List<Variant> forms = new ArrayList<Variant>();
+            for(final String verb : getUniqueVerbForms(ptoken))
+            {
+                if(!seen.add(verb.toLowerCase()))
+                    continue;
+                
+                // replace with new form
+                final String[] newTokens = ptagging.tokens.clone();
+                newTokens[i] = verb;
+                forms.add(variants.add(newTokens));
+            }
+            verbForms.put(i, forms);
+        }
+        
+        // parse the distinct variants
+        variants.evaluate();
+
+        // calculate changes to probabilities after changing tokens
+        for(Map.Entry<Integer, List<Variant>> verb : verbForms.entrySet())
+        {
+            final int i           = verb.getKey();
+            final String ptoken   = ptagging.tokens[i];
+            final double pTagProb = ptagging.probs [i];
+
             si.nVerbs++;
 
-            // generate all forms of this verb
-            final String[] forms        = getUniqueVerbForms(ptoken);
-            final String[] newTokens    = ptagging.tokens.clone();
             double maxTagProb           = Double.NEGATIVE_INFINITY;
             double maxPTagProb          = Double.NEGATIVE_INFINITY;
             double maxTagSeqProb        = Double.NEGATIVE_INFINITY;
@@ -1152,44 +1700,37 @@ public class GrammarTools
             double maxStanfordParseProb = Double.NEGATIVE_INFINITY;
 
             // calculate the changes in probs from changing the verb form
-            for(final String verb : forms)
+            for(final Variant form : verb.getValue())
             {
-                // skip if original form
-                if(verb.equalsIgnoreCase(ptoken))
-                    continue;
-
-                // replace with new form
-                newTokens[i] = verb;
+                Deadline.check();
 
                 // update max tag prob
-                Tagging newTagging = opennlpToolkit.tagger.tag(newTokens);
-                if(newTagging != null && newTagging.probs[i] > maxTagProb)
-                    maxTagProb = newTagging.probs[i];
+                CompactTagging newTagging = retagger != null && retagBase != null ?
+                        retagger.retag(form.tokens, retagBase, i) :
+                        core.opennlpToolkit.tagger.tagCompact(form.tokens);
+                if(newTagging != null && newTagging.getProb(i) > maxTagProb)
+                    maxTagProb = newTagging.getProb(i);
 
-                ParseTree newParse;
-
-                newParse = opennlpToolkit.parser.parse(newTokens);
-                if(newParse != null)
+                if(form.opennlpParse != null)
                 {
                     // update parser tags prob
-                    Tagging newPTagging = ((OpenNLPParseTree)newParse).getPosTagging();
+                    Tagging newPTagging = form.opennlpParse.getPosTagging();
                     if(newPTagging.probs[i] > maxPTagProb)
                         maxPTagProb = newPTagging.probs[i];
 
                     // update tag sequence probabiltiy
-                    double tagSeqProb = ((OpenNLPParseTree)newParse).getTagSeqProb();
+                    double tagSeqProb = form.opennlpParse.getTagSeqProb();
                     if(tagSeqProb > maxTagSeqProb)
                         maxTagSeqProb = tagSeqProb;
 
                     // update max parse prob
-                    if(newParse.getProb() > maxOpenNLPParseProb)
-                        maxOpenNLPParseProb = newParse.getProb();
+                    if(form.opennlpParse.getProb() > maxOpenNLPParseProb)
+                        maxOpenNLPParseProb = form.opennlpParse.getProb();
                 }
 
-                newParse = stanfordToolkit.parser.parse(newTokens);
                 // update stanford parse probability
-                if(newParse != null && newParse.getProb() > maxStanfordParseProb)
-                    maxStanfordParseProb = newParse.getProb();
+                if(form.stanfordParse != null && form.stanfordParse.getProb() > maxStanfordParseProb)
+                    maxStanfordParseProb = form.stanfordParse.getProb();
             }
             
             // if lowest probability seen so far, record the change in form
@@ -1321,7 +1862,7 @@ public class GrammarTools
     }
     
     
-    private void generateSentenceInstanceSimplifiedClauseAttributes(SentenceInstance si, ParseTree parse)
+    private void generateSentenceInstanceSimplifiedClauseAttributes(SentenceInstance si, ParseTree parse, SentenceVariants variants)
     {
         // sentence instance for simplified clauses
         final SentenceInstance s_si = new SentenceInstance();   
@@ -1348,17 +1889,25 @@ public class GrammarTools
         si.s_totDeltaMinChangeOpennlpParseProb    = 0;
         si.s_totDeltaMinChangeStanfordParseProb   = 0;
 
+        // parse the distinct clauses; a clause equal to the whole sentence reuses its analysis,
+        // and their mutations share the variants of the whole sentence
+        final List<Variant> clauseVariants = new ArrayList<Variant>(clauses.size());
         for(Tagging clause : clauses)
+            clauseVariants.add(variants.add(clause.tokens));
+        variants.evaluate();
+
+        for(Variant clause : clauseVariants)
         {
-            final Tagging tagging = opennlpToolkit.tagger.tag(clause.tokens);
-            final OpenNLPParseTree opt  = (OpenNLPParseTree) opennlpToolkit.parser.parse(clause.tokens);
-            final StanfordParseTree spt = (StanfordParseTree) stanfordToolkit.parser.parse(clause.tokens);
+            Deadline.check();
+            final Tagging tagging = variants.getTagging(clause);
+            final OpenNLPParseTree opt  = clause.opennlpParse;
+            final StanfordParseTree spt = clause.stanfordParse;
 
             s_si.opennlpParseProb  = opt.getProb();
             s_si.stanfordParseProb = spt.getProb();
 
-            generateSentenceInstanceVerbChangeAttributes(s_si, tagging, opt, spt);
-            generateSentenceInstanceMinChangeAttributes(si, tagging.iMin, opt, spt);
+            generateSentenceInstanceVerbChangeAttributes(s_si, tagging, opt, spt, variants);
+            generateSentenceInstanceMinChangeAttributes(si, tagging.iMin, opt, spt, variants);
 
             // totals
             si.s_nClauses++;
@@ -1430,185 +1979,188 @@ public class GrammarTools
         }   
     }
     
-
+
+    /**
+     * Extracts the main noun and verb from a parse tree.
+     */
+    private List<Tagging> toSimplifiedClauses(ParseTree parse)
+    {
+        return toSimplifiedClauses(parse.cursor());
+    }
+    
     /**
-     * Extracts the main noun and verb from a parse tree.
+     * Extracts the main noun and verb from the subtree at the cursor, leaving the cursor where it started.
+     * Nodes are taken in breadth first order; the walks themselves are depth first,
+     * with nodes ordered by (depth, pre-order position), so that no wrappers are created per node.
      */
-    private List<Tagging> toSimplifiedClauses(ParseTree parse)
+    private List<Tagging> toSimplifiedClauses(ParseTreeCursor c)
     {
-        final List<Tagging> result = new LinkedList<Tagging>();
-        final List<String> npTags = Arrays.asList(PennTreebankNounPhraseTags),
-                           vpTags = Arrays.asList(PennTreebankVerbPhraseTags);
-        
         final Map<String, String> tokenMap = new HashMap<String, String>();
         tokenMap.put("'s", "is");
         
-        
+        // search for the first NP, then the first VP after it; recurse into clauses
+        final int base = c.getDepth();
+        final SortedMap<Long, List<Tagging>> clauses = new TreeMap<Long, List<Tagging>>();
         ParseTree np = null, vp = null;
-        List<ParseTree> nodes = new LinkedList<ParseTree>(Arrays.asList(parse.getChildren()));
+        long npKey = Long.MAX_VALUE, vpKey = Long.MAX_VALUE;
         
-        // breadth first search for NP, VP; recurse into clauses
-        while(!nodes.isEmpty())
+        for(int pass = 0; pass < 2; pass++)
         {
-            final List<ParseTree> children = new LinkedList<ParseTree>();
-            for(ParseTree n : nodes)
+            if(pass == 1 && np == null)
+                break;
+            
+            int order = 0;
+            boolean hasNext = c.toFirstChild();
+            while(hasNext)
             {
-                // recurse into clauses
-                if(n.isClausal())
+                final long key = ((long)c.getDepth() << 32) | order++;
+                if(c.isClausal())
                 {
-                    result.addAll(toSimplifiedClauses(n));
+                    if(pass == 0)
+                        clauses.put(key, toSimplifiedClauses(c));
+                    hasNext = c.toNextSkippingChildren(base);
+                    continue;
                 }
-                // otherwise check if np/vp, add children
-                else
-                {                   
-                    if(np == null && npTags.contains(n.getValue()))
-                    {
-                        np = n;
-                    }
-                    // only add vp if a np has been found first
-                    else if(vp == null && np != null && vpTags.contains(n.getValue()))
-                    {
-                        vp = n;
-                    }
-                    
-                    children.addAll(Arrays.asList(n.getChildren()));
+                
+                if(pass == 0 && key < npKey && PennTreebankTags.isNounPhrase(c.getValue()))
+                {
+                    np = c.getTree();
+                    npKey = key;
+                }
+                // only add vp if a np has been found first
+                else if(pass == 1 && key > npKey && key < vpKey && PennTreebankTags.isVerbPhrase(c.getValue()))
+                {
+                    vp = c.getTree();
+                    vpKey = key;
                 }
+                hasNext = c.toNext(base);
             }
-            
-            nodes = children;
         }
         
-        final List<ParseTree> tagNodes = new LinkedList<ParseTree>();
-        boolean hasNoun = false;
+        final List<Tagging> result = new LinkedList<Tagging>();
+        for(List<Tagging> clause : clauses.values())
+            result.addAll(clause);
+        
+        final List<String> tokens = new LinkedList<String>();
+        final List<String> tags = new LinkedList<String>();
+        final List<Double> probs = new LinkedList<Double>();
         boolean hasVerb = false;
 
         // collect consecutive noun nodes
         if(np != null)
         {
-            final List<ParseTree> t = new LinkedList<ParseTree>();
-            nodes.clear();
-            nodes.addAll(Arrays.asList(np.getChildren()));
-            
+            final ParseTreeCursor n = np.cursor();
+            boolean isEmpty = true;
             boolean done = false;
-            while(!done && !nodes.isEmpty())
+            for(int depth = 1; !done; depth++)
             {
-                List<ParseTree> children = new LinkedList<ParseTree>();    
-                for(ParseTree n : nodes)
+                boolean hasLevel = false;
+                while(n.toNextAtDepth(depth, 0))
                 {
+                    hasLevel = true;
                     if(n.isPosTag())
                     {
                         POSType posType = getPOSType(n.getValue());
                         // add noun
                         if(posType == POSType.NOUN
                            // or pronoun or determiner (if list is empty)
-                            || (t.isEmpty() && (posType == POSType.PRONOUN || posType == POSType.DETERMINER )))
+                            || (isEmpty && (posType == POSType.PRONOUN || posType == POSType.DETERMINER )))
                         {
-                            t.add(n);
+                            addSimplifiedClauseToken(n, tokenMap, tokens, tags, probs);
+                            isEmpty = false;
                         }                        
                         // if a noun has already been added, and this is not one, stop adding
-                        else if(!t.isEmpty())
+                        else if(!isEmpty)
                         {
                             done = true;
                             break;
                         }
                     }
-                    children.addAll(Arrays.asList(n.getChildren()));
                 }
-
-                nodes = children;
+                done |= !hasLevel;
             }
-            
-            hasNoun = !t.isEmpty();
-            tagNodes.addAll(t);
         }
         
         // collect consecutive verb nodes
         if(vp != null)
         {
-            final List<ParseTree> t = new LinkedList<ParseTree>();
-            nodes.clear();
-            nodes.addAll(Arrays.asList(vp.getChildren()));
-            
+            final ParseTreeCursor n = vp.cursor();
+            int root = 0;
             boolean done = false;
-            while(!done && !nodes.isEmpty())
+            for(int depth = root + 1; !done; depth++)
             {
-                List<ParseTree> children = new LinkedList<ParseTree>();    
-                for(ParseTree n : nodes)
+                boolean hasLevel = false;
+                while(n.toNextAtDepth(depth, root))
                 {
+                    hasLevel = true;
                     if(n.isPosTag())
                     {
                         POSType posType = getPOSType(n.getValue());
                         if(posType == POSType.VERB)
                         {
-                            t.add(n);
+                            addSimplifiedClauseToken(n, tokenMap, tokens, tags, probs);
+                            hasVerb = true;
                         }
                         // if a verb has already been added, and this is not one, stop adding
-                        else if(!t.isEmpty())
+                        else if(hasVerb)
                         {
                             done = true;
                             break;
                         }
                     }
                     // if vp encountered, constrain search to that vp only
-                    else if(vpTags.contains(n.getValue()))
+                    else if(PennTreebankTags.isVerbPhrase(n.getValue()))
                     {
-                        children.clear();
-                        children.addAll(Arrays.asList(n.getChildren()));
+                        root = n.getDepth();
+                        depth = root;
+                        hasLevel = true;
                         break;
                     }
-                    else
-                    {
-                        children.addAll(Arrays.asList(n.getChildren()));
-                    }
                 }
-
-                nodes = children;
+                done |= !hasLevel;
             }
-            
-            hasVerb = !t.isEmpty();
-            tagNodes.addAll(t);
         }
         
-        if(!tagNodes.isEmpty() && hasVerb)
+        if(hasVerb && tokens.size() > 0)
         {
-            List<String> tokens = new LinkedList<String>();
-            List<String> tags = new LinkedList<String>();
-            List<Double> probs = new LinkedList<Double>();
+            String first = tokens.get(0);
+            first = first.substring(0,1).toUpperCase() + first.substring(1);
+            tokens.set(0, first);
+            tokens.add(".");
+            tags.add(".");
 
-            for(ParseTree n : tagNodes)
-            {
-                ParseTree[] c = n.getChildren();
-                if(c.length > 0)
-                {
-                    String t = c[0].getValue();
-                    String tt = tokenMap.get(t);
-                    t = tt == null ? t : tt;
+            result.add(new Tagging(tokens.toArray(new String[0]), 
+                    tags.toArray(new String[0]), 
+                    ArrayUtils.toPrimitive(probs.toArray(new Double[0])),
+                    null));
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Adds the token of the POS node at the cursor to a simplified clause, ignoring non-words.
+     */
+    private static void addSimplifiedClauseToken(ParseTreeCursor n, Map<String, String> tokenMap,
+            List<String> tokens, List<String> tags, List<Double> probs)
+    {
+        final String tag = n.getValue();
+        final double prob = n.getProb();
+        if(n.toFirstChild())
+        {
+            String t = n.getValue();
+            String tt = tokenMap.get(t);
+            t = tt == null ? t : tt;
+            n.toParent();
 
-                    // ignore non-words
-                    if(t != null && t.matches("(\\s*[\\w,]+\\s*)+"))
-                    {
-                        tokens.add(t);
-                        tags.add(n.getValue());
-                        probs.add(n.getProb());
-                    }
-                }
-            }
-            if(tokens.size() > 0)
+            // ignore non-words
+            if(t != null && t.matches("(\\s*[\\w,]+\\s*)+"))
             {
-                String first = tokens.get(0);
-                first = first.substring(0,1).toUpperCase() + first.substring(1);
-                tokens.set(0, first);
-                tokens.add(".");
-                tags.add(".");
-            
-                result.add(new Tagging(tokens.toArray(new String[0]), 
-                        tags.toArray(new String[0]), 
-                        ArrayUtils.toPrimitive(probs.toArray(new Double[0])),
-                        null));
+                tokens.add(t);
+                tags.add(tag);
+                probs.add(prob);
             }
         }
-        
-        return result;
     }
    
     
@@ -1620,7 +2172,7 @@ public class GrammarTools
         final List<String> clausalDependencies = Arrays.asList(new String[] { "nsubj", "aux", "root", "xsubj", "partmod" });
         final String[] tags = parse.getPosTags();
         LinkedList<String[]> result = new LinkedList<String[]>();
-        List<TypedDependency> dependencies = ((StanfordParser)stanfordToolkit.parser).parseDependencies(parse);
+        List<TypedDependency> dependencies = ((StanfordParser)core.stanfordToolkit.parser).parseDependencies(parse);
         for(TypedDependency td : dependencies)
         {
             System.out.println(td.reln() + ": " + td.gov() + "-> " + td.dep());
@@ -1635,6 +2187,7 @@ public class GrammarTools
     public static class XmlOptions
     {
         public long maxItemProcessTime = DEF_MAX_ITEM_PROCESS_TIME; // millseconds, 0 is infinite
+        public int nThreads = DEF_THREADS;                          // sentences processed at the same time, longest first
         public int nGrammaticalErrorsPerSentence;   // if using binary attributes: 0 = correct, otherwise incorrect
         public boolean useBinaryErrorOnly;
         public boolean isAppending;
@@ -1643,82 +2196,91 @@ public class GrammarTools
     public void runXmlTool(String input, final XmlOptions o)
     {
         final String outputFile = o.outputFile;
-        final String[] sentences = stanfordToolkit.sentenceSplitter.split( input );
+        final String[] sentences = core.stanfordToolkit.sentenceSplitter.split( input );
         final List<ProcessedSentence> processed = new LinkedList<ProcessedSentence>();
         final long cacheSize = 200;
         final int maxResults = 2;  // top 2 taggings & parses
 
-        final double total = sentences.length;
-        long progress = 0;
-        updateUI(progress, "");
+        final List<BatchItem> items = new ArrayList<BatchItem>(sentences.length);
+        updateUI(0, "");
 
         for( final String sentence : sentences )
         {                               
-            final Runnable r = 
-            new Runnable() 
+            items.add(
+            new BatchItem(estimateCost(sentence)) 
             {
-                private String output = "";
-                @Override public String toString() { return output; }
+                private volatile ProcessedSentence result;
                 @Override public void run()
                 {
                     try
                     {
-                        final String[] tokens = stanfordToolkit.tokenizer.tokenize( sentence );
-                        final Tagging[] taggings = opennlpToolkit.tagger.tag( tokens, maxResults );
+                        final String[] tokens = core.stanfordToolkit.tokenizer.tokenize( sentence );
+                        final Tagging[] taggings = core.opennlpToolkit.tagger.tag( tokens, maxResults );
 
                         // parse
                         List<ParseTree> parses = new LinkedList<ParseTree>();
-                        parses.addAll( Arrays.asList( stanfordToolkit.parser.parse( tokens, maxResults ) ) );
-                        parses.addAll( Arrays.asList( opennlpToolkit.parser.parse( tokens, maxResults ) ) );
-
-                        ParseTree[] arrParses = parses.toArray( new ParseTree[0] );
+                        parses.addAll( Arrays.asList( core.stanfordToolkit.parser.parse( tokens, maxResults ) ) );
+                        parses.addAll( Arrays.asList( core.opennlpToolkit.parser.parse( tokens, maxResults ) ) );
 
-                        // save sentence features
-                        processed.add( 
-                                o.useBinaryErrorOnly ? 
-                                new ProcessedSentence( tokens, arrParses, taggings, o.nGrammaticalErrorsPerSentence == 0 ) :
-                                new ProcessedSentence( tokens, arrParses, taggings, o.nGrammaticalErrorsPerSentence ) );
-
-                        if( !processed.isEmpty() 
-                         && (processed.size() >= cacheSize || sentence == sentences[sentences.length-1]) )
-                        {
-                            writeXmlFile( processed.toArray(new ProcessedSentence[0]), outputFile, o.isAppending );
+                        // held until the batch is written, so keep compact copies rather than the parsers' trees
+                        ParseTree[] arrParses = FlatParseTree.compact( parses.toArray( new ParseTree[0] ) );
 
-                            o.isAppending = true;
-                            processed.clear();
-                        }
-                        
-                        output += sentence;
+                        String out = sentence;
                         if(taggings.length > 0 && taggings[0] != null)
-                            output += "\n" + taggings[0].toString();
+                            out += "\n" + taggings[0].toString();
                         if(arrParses.length > 0 && arrParses[0] != null)
-                            output += "\n" + arrParses[0].toString();
-                        output += "\n\n";
+                            out += "\n" + arrParses[0].toString();
+                        output += out + "\n\n";
+
+                        // sentence features
+                        result = o.useBinaryErrorOnly ? 
+                                new ProcessedSentence( tokens, arrParses, taggings, o.nGrammaticalErrorsPerSentence == 0 ) :
+                                new ProcessedSentence( tokens, arrParses, taggings, o.nGrammaticalErrorsPerSentence );
+                    }
+                    catch(Deadline.ExceededException e)
+                    {
+                        output += " <operation timed out>";
                     }
                     catch(Exception e)
                     {
                         e.printStackTrace(System.err);
                     }
                 }
-            };
-            
-            String output = "";
-            final Thread t = new Thread(r);
-            t.start();
-            try 
-            { 
-                t.join(o.maxItemProcessTime); 
-                output = r.toString();
-                if(t.isAlive())
+                @Override protected String finish(String output)
                 {
-                    output += " <operation timed out>";
-                    t.interrupt();
+                    // save sentence features
+                    if(result != null)
+                        processed.add(result);
+                    
+                    if( processed.size() >= cacheSize )
+                        flushXmlFile( processed, outputFile, o );
+                    
+                    return output;
                 }
-            }
-            catch(InterruptedException e) {}
-
-            updateUI(++progress/total, output);
+            });
+        }
+        
+        runBatch(items, o.nThreads, o.maxItemProcessTime);
+        
+        flushXmlFile( processed, outputFile, o );
+    }
+    
+    private void flushXmlFile(List<ProcessedSentence> processed, String outputFile, XmlOptions o)
+    {
+        if( processed.isEmpty() )
+            return;
+        
+        try
+        {
+            writeXmlFile( processed.toArray(new ProcessedSentence[0]), outputFile, o.isAppending );
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
         }
+        
+        o.isAppending = true;
+        processed.clear();
     }
     
 
@@ -1816,15 +2378,19 @@ public class GrammarTools
     public static class DcgOptions
     {
         public boolean showRules;
+        public boolean profile;             // report the cost of each rule and the costliest tag sequences, bypassing the verdict cache
+        public int nThreads = DEF_THREADS;  // sentences processed at the same time, longest first
         public String grammarFile;
+        public String screenGrammarFile;    // cheaper grammar accepting a superset of grammarFile, checked first, or null
+        public String verdictFile;          // DCG verdicts kept between runs, or null to keep them for this session only
         public long maxItemProcessTime = DEF_MAX_ITEM_PROCESS_TIME; // millseconds, 0 is infinite
     }
     public void runDcgTool(String input, final DcgOptions o)
     {          
-        Prolog engine;
+        Grammar engine;
         try
         {
-            engine = createGrammar(o.grammarFile);
+            engine = createGrammar(o.grammarFile, o.screenGrammarFile, o.verdictFile);
         }
         catch(Exception ex)
         {
@@ -1834,23 +2400,21 @@ public class GrammarTools
             return;
         }
 
-        final Prolog grammar = engine;
-                
-        for( final Toolkit kit : new Toolkit[]{opennlpToolkit, stanfordToolkit} )
+        final Grammar grammar = o.profile ? new ProfiledGrammar(engine) : engine;
+        
+        final List<BatchItem> items = new ArrayList<BatchItem>();
+        updateUI(0, "");
+        
+        for( final Toolkit kit : new Toolkit[]{core.opennlpToolkit, core.stanfordToolkit} )
         {
             final String[] sentences = kit.sentenceSplitter.split( input );
-            final double total = sentences.length;
-            long progress = 0;
-
-            updateUI( progress/total, kit + "\n" );
-
-            for( final String sentence : sentences )
+            for( int i = 0; i < sentences.length; i++ )
             {
-                final Runnable r = 
-                new Runnable() 
+                final String sentence = sentences[i];
+                final String header = (i == 0) ? kit + "\n" : "";
+                items.add(
+                new BatchItem(estimateCost(sentence)) 
                 {
-                    private String output = "";
-                    @Override public String toString() { return output; }
                     @Override public void run()
                     {
                         try
@@ -1860,37 +2424,45 @@ public class GrammarTools
                             
                             output += sentence;
 
-                            SolveInfo query = queryGrammar(grammar, parse.getValue(), parse.getPosTags());
+                            if(parse == null)
+                            {
+                                // the Stanford PCFG refuses sentences over the profile's maximum length
+                                final boolean isTooLong = kit.parser instanceof StanfordParser
+                                        && ((StanfordParser)kit.parser).getMaxSentenceLength() > 0
+                                        && tokens.length > ((StanfordParser)kit.parser).getMaxSentenceLength();
+                                output += "\nin grammar? not parsed" + (isTooLong ? " (too long)" : "") + "\n\n";
+                                return;
+                            }
+
+                            final String[] tags = parse.getPosTags();
                             if(o.showRules)
-                                output += "\n" + query.getQuery();
+                                output += "\n" + PrologGrammar.toGoal(parse.getValue(), tags);
                             
-                            output += "\nin grammar? " + query.isSuccess() + "\n\n";
+                            final Boolean isParsable = grammar.isParsable(parse.getValue(), tags);
+                            output += "\nin grammar? " + (isParsable == null ? "unknown (query budget exceeded)" : isParsable) + "\n\n";
+                        }
+                        catch(Deadline.ExceededException e)
+                        {
+                            output += " <operation timed out>";
                         }
                         catch(Exception e)
                         {
                             e.printStackTrace(System.err);
                         }
                     }
-                };
-
-                String output = "";
-                final Thread t = new Thread(r);
-                t.start();
-                try 
-                { 
-                    t.join(o.maxItemProcessTime); 
-                    output = r.toString();
-                    if(t.isAlive())
+                    @Override protected String finish(String output)
                     {
-                        output += " <operation timed out>";
-                        t.interrupt();
+                        return header + output;
                     }
-                }
-                catch(InterruptedException e) {}
-                
-                updateUI( ++progress/total, output );
+                });
             }
         }
+        
+        runBatch(items, o.nThreads, o.maxItemProcessTime);
+        
+        if(o.profile)
+            updateUI(1, ((ProfiledGrammar)grammar).getReport() + "\n");
+        finishGrammar(engine, o.verdictFile);
     }
     
     public static class ClassifyOptions
@@ -1898,25 +2470,27 @@ public class GrammarTools
         public double errorThreshold;
         public String functionScript;
         public String grammarFile;
+        public String screenGrammarFile;    // cheaper grammar accepting a superset of grammarFile, checked first, or null
+        public String verdictFile;          // DCG verdicts kept between runs, or null to keep them for this session only
         public String modelFile;
         public boolean isNumericClass;
         public boolean showCorrect;
         public boolean showIncorrect;
         public long maxItemProcessTime = DEF_MAX_ITEM_PROCESS_TIME; // millseconds, 0 is infinite
+        public int maxSentenceLength = DEF_MAX_SENTENCE_LENGTH;     // tokens before segmenting, 0 is infinite
+        public int nThreads = DEF_THREADS;                          // sentences processed at the same time, longest first
     }
     public void runClassifyTool(String input, final ClassifyOptions o)
     {
-        final String[] sentences = stanfordToolkit.sentenceSplitter.split( input );
+        final String[] sentences = core.stanfordToolkit.sentenceSplitter.split( input );
         final long total = sentences.length;
-        long totalGrammatical = 0;
-        double progress = 0;
 
-        Prolog engine = null;
+        Grammar engine = null;
         if(o.grammarFile != null && !o.grammarFile.isEmpty())
         {
             try
             {
-                engine = createGrammar(o.grammarFile);
+                engine = createGrammar(o.grammarFile, o.screenGrammarFile, o.verdictFile);
             }
             catch(Exception ex)
             {
@@ -1927,7 +2501,8 @@ public class GrammarTools
             }
         }
         
-        final Prolog grammar = engine;
+        final Grammar grammar = engine;
+        final VariantCache variantCache = new VariantCache(VARIANT_CACHE_SIZE);
                 
         updateUI( 0, "" );
         
@@ -1972,51 +2547,87 @@ public class GrammarTools
         }
                 
         updateUI(0, "classifier: " + classifier.getClass().getSimpleName() + "\n\n" );
+        
+        final Instances header = data;
+        final SentenceInstance.WekaConverter converter = new SentenceInstance.WekaConverter(header);
+        final long[] totalGrammatical = { 0 };
+        final long[] totalPartial = { 0 };
+        final List<BatchItem> items = new ArrayList<BatchItem>(sentences.length);
                 
         for( final String sentence : sentences )
         {
-            final StringBuffer sb =  new StringBuffer();            
-            final Instance i = generateSentenceInstance(sentence, 0, o.functionScript, grammar).toWekaInstance(data);
-            i.setDataset(data);
-            data.add(i);
-            
-            try
+            items.add(
+            new BatchItem(estimateCost(sentence)) 
             {
-                double result = classifier.classifyInstance(i);
-                if(i.classAttribute().isNominal())
+                private volatile Instance instance;
+                private volatile boolean isPartial;
+                @Override public void run()
                 {
-                    boolean isGrammatical = SentenceInstance.fromBoolNominalIndex(result);
-                    
-                    if(isGrammatical)
-                        ++totalGrammatical;
-                    
-                    if(isGrammatical && o.showCorrect || !isGrammatical && o.showIncorrect)
-                        sb.append( sentence + "\n[correct: " + isGrammatical + "]\n\n" );
+                    final Instance i = converter.toWekaInstance(generateSentenceInstance(sentence, 0, o.functionScript, grammar, variantCache, o.maxSentenceLength));
+                    isPartial = Deadline.isExpired();
+                    instance = i;
                 }
-                else
+                @Override protected String finish(String output)
                 {
-                    boolean isGrammatical = result <= o.errorThreshold;
+                    final StringBuffer sb =  new StringBuffer();
+                    final Instance i = instance;
+                    if(i == null)
+                        return sentence + output + "\n\n";
                     
-                    if(isGrammatical)
-                        ++totalGrammatical;
+                    if(isPartial)
+                    {
+                        ++totalPartial[0];
+                        sb.append(sentence + "\n<partial: time budget exceeded>\n");
+                    }
                     
-                    if(isGrammatical && o.showCorrect || !isGrammatical && o.showIncorrect)
-                        sb.append( sentence + "\n[correct: " + isGrammatical + ", errors: " + result + "]\n\n" );
-                }
-            }
-            catch(Exception e)
-            {
-                sb.append(sentence + "\n<error: " + e.getLocalizedMessage() + ">\n\n");
-            }
-            
-            data.clear();
+                    // the classifier is only used from the thread running the batch
+                    i.setDataset(header);
+                    header.add(i);
+
+                    try
+                    {
+                        double result = classifier.classifyInstance(i);
+                        if(i.classAttribute().isNominal())
+                        {
+                            boolean isGrammatical = SentenceInstance.fromBoolNominalIndex(result);
+
+                            if(isGrammatical)
+                                ++totalGrammatical[0];
+
+                            if(isGrammatical && o.showCorrect || !isGrammatical && o.showIncorrect)
+                                sb.append( sentence + "\n[correct: " + isGrammatical + "]\n\n" );
+                        }
+                        else
+                        {
+                            boolean isGrammatical = result <= o.errorThreshold;
+
+                            if(isGrammatical)
+                                ++totalGrammatical[0];
+
+                            if(isGrammatical && o.showCorrect || !isGrammatical && o.showIncorrect)
+                                sb.append( sentence + "\n[correct: " + isGrammatical + ", errors: " + result + "]\n\n" );
+                        }
+                    }
+                    catch(Exception e)
+                    {
+                        sb.append(sentence + "\n<error: " + e.getLocalizedMessage() + ">\n\n");
+                    }
 
-            updateUI( ++progress/total, sb.toString() );
+                    header.clear();
+                    
+                    return sb.toString();
+                }
+            });
         }
+        
+        runBatch(items, o.nThreads, o.maxItemProcessTime);
 
         updateUI( 1, "Total sentences: " + total 
-                     + "\nGrammatically correct: " + totalGrammatical
-                     + "\nGrammatically incorrect: " + (total - totalGrammatical) + "\n\n" );
+                     + "\nGrammatically correct: " + totalGrammatical[0]
+                     + "\nGrammatically incorrect: " + (total - totalGrammatical[0]) 
+                     + "\nPartial (time budget exceeded): " + totalPartial[0] + "\n\n" );
+        
+        finishGrammar(grammar, o.verdictFile);
     }
     
     /**
@@ -2087,11 +2698,15 @@ public class GrammarTools
                 sentence.addContent( parse );
                 parse.setAttribute( new org.jdom.Attribute( XML_ATTRIB_DESC,
                         p.getDesc() ));
-                addElementRecursive( parse, p );
+                addElementRecursive( parse, p.cursor() );
                 if( p instanceof OpenNLPParseTree ) {
                     parse.setAttribute( new org.jdom.Attribute( XML_ATTRIB_TAGSEQPROB,
                             Double.toString( ((OpenNLPParseTree)p).getTagSeqProb() ) ) );
                 }
+                else if( p instanceof FlatParseTree && !Double.isNaN( ((FlatParseTree)p).getTagSeqProb() ) ) {
+                    parse.setAttribute( new org.jdom.Attribute( XML_ATTRIB_TAGSEQPROB,
+                            Double.toString( ((FlatParseTree)p).getTagSeqProb() ) ) );
+                }
             }
         }
 
@@ -2102,14 +2717,17 @@ public class GrammarTools
         writer.close();
     }
 
-    private static void addElementRecursive( Element e, ParseTree p )
+    private static void addElementRecursive( Element e, ParseTreeCursor p )
     {
         if( p.isTerminal() ) {
             e.addContent( p.getValue() );
         } else {
             Element tag = new Element( toXmlName( p.getValue() ) );
-            for( ParseTree child : p.getChildren() ) {
-                addElementRecursive( tag, child );
+            if( p.toFirstChild() ) {
+                do {
+                    addElementRecursive( tag, p );
+                } while( p.toNextSibling() );
+                p.toParent();
             }
             e.addContent( tag );
             if( !Double.isNaN( p.getProb() ) ) {
@@ -2286,19 +2904,13 @@ public class GrammarTools
                 }
                 // clausal
                 else if( prevElem != null && prevElem.equals( OpenNLPParseTree.ROOT ) ) {
-                    for( String s : OpenNLPParseTree.CLAUSES ) {
-                        if( qName.equals(s) ) {
-                            stats.numOpenNLPClausal++;
-                            break;
-                        }
+                    if( PennTreebankTags.isClause( qName ) ) {
+                        stats.numOpenNLPClausal++;
                     }
                 }
                 else if( prevElem != null && prevElem.equals( StanfordParseTree.ROOT )) {
-                    for( String s : StanfordParseTree.CLAUSES ) {
-                        if( qName.equals(s) ) {
-                            stats.numStanfordClausal++;
-                            break;
-                        }
+                    if( PennTreebankTags.isClause( qName ) ) {
+                        stats.numStanfordClausal++;
                     }
                 }
                 // tokens
@@ -2430,28 +3042,58 @@ public class GrammarTools
             this.category = lc;
             this.tags = tags;
         }        
+        
+        /**
+         * Determines if a tag is one of this type's tags.
+         */
+        public boolean contains(String tag)
+        {
+            final int id = PennTreebankTags.find(tag);
+            return id >= 0 && id < POSTypeTable.MEMBERS[ordinal()].length && POSTypeTable.MEMBERS[ordinal()][id];
+        }
+        
         final private LexicalCategory category;
         final private String[] tags;
     }
     
+    /**
+     * POS types by tag id, built on first use (rather than with this class) since the tag registry reads this class's tag lists.
+     */
+    private static class POSTypeTable
+    {
+        static final POSType[]      TYPES   = new POSType[PennTreebankTags.size()];
+        static final boolean[][]    MEMBERS = new boolean[POSType.values().length][PennTreebankTags.size()];
+        static
+        {
+            // a tag's type is the first type listing it
+            for(int i = POSType.values().length - 1; i >= 0; i--)
+            {
+                final POSType type = POSType.values()[i];
+                for(String tag : type.tags)
+                {
+                    final int id = PennTreebankTags.find(tag);
+                    TYPES[id] = type;
+                    MEMBERS[i][id] = true;
+                }
+            }
+        }
+    }
+    
     public static POSType getPOSType(String tag)
     {
-        tag = tag.toUpperCase();
-        for(POSType type : POSType.values())
-            if(Arrays.asList(type.tags).contains(tag))
-                return type;
-
-        return POSType.OTHER;
+        final int id = PennTreebankTags.find(tag.toUpperCase());
+        final POSType type = id >= 0 && id < POSTypeTable.TYPES.length ? POSTypeTable.TYPES[id] : null;
+        return type != null ? type : POSType.OTHER;
     }
         
     public boolean isPluralNounTag(String tag)
     {
-        return pluralNounTags.contains(tag);
+        return PLURAL_NOUN_TAGS.contains(tag);
     }
     
     public Form getVerbForm(String tag)
     {
-        Form form = verbForm.get(tag);
+        Form form = VERB_FORMS.get(tag);
         return form != null ? form : Form.NORMAL;
     }
 
@@ -2480,109 +3122,160 @@ public class GrammarTools
         private int weight;
     }
 
-    private void initSimpleNLG()
+    /**
+     * The SimpleNLG lexicon, factory and realiser of a core. 
+     * SimpleNLG words are shared lexicon entries whose features are set and cleared around realisation,
+     * so words are realised while holding the lock of this object.
+     */
+    private static final class SimpleNLG
     {
-        if(realiser == null)
+        SimpleNLG()
         {
             lexicon = Lexicon.getDefaultLexicon();
-            nlgfactory = new NLGFactory(lexicon);
+            factory = new NLGFactory(lexicon);
             realiser = new Realiser(lexicon);
-
-            // plural noun tags
-            pluralNounTags = new TreeSet<String>() ;
-            pluralNounTags.add("NNS");
-            pluralNounTags.add("NNPS");
-            
-            // map tag to verb form
-            verbForm = new TreeMap<String, Form>();
-            verbForm.put("VB",     Form.BARE_INFINITIVE);
-            verbForm.put("VBD",    Form.PAST_PARTICIPLE);
-            verbForm.put("VBG",    Form.PRESENT_PARTICIPLE);
-            verbForm.put("VBN",    Form.BARE_INFINITIVE);
-            verbForm.put("VBP",    Form.BARE_INFINITIVE);
-            verbForm.put("VBZ",    Form.NORMAL);
-            
-            personChange = new EnumMap<Person, Person>(Person.class);
-            personChange.put(Person.FIRST, Person.THIRD);
-            personChange.put(Person.SECOND, Person.THIRD);
-            personChange.put(Person.THIRD, Person.FIRST);
-            
-            determinerChange = new TreeMap<String, String>();
-            determinerChange.put("the", "a");
-            determinerChange.put("some", "a");
-            determinerChange.put("a", "the");
-            determinerChange.put("an", "the");
-            determinerChange.put("this", "these");
-            determinerChange.put("these", "this");
-            determinerChange.put("that", "those");
-            determinerChange.put("those", "that");
-            determinerChange.put("what", "which");
-            determinerChange.put("which", "what");
-            determinerChange.put("whatever", "whichever");
-            determinerChange.put("whichever", "whatever");
-            determinerChange.put("all", "a");
-            
-            
-            // bimap of subjective to objective pronouns
-            objectivityChange = new TreeMap<String, String>();
-            objectivityChange.put("I", "me");      objectivityChange.put("me", "I");
-            objectivityChange.put("he", "him");    objectivityChange.put("him", "he");
-            objectivityChange.put("she", "her");   objectivityChange.put("her", "she");
-            objectivityChange.put("it", "me");     objectivityChange.put("me", "it");
-            objectivityChange.put("we", "us");     objectivityChange.put("us", "we");
-            objectivityChange.put("you", "me");    objectivityChange.put("me", "you");
-            objectivityChange.put("they", "them"); objectivityChange.put("them", "they");
-            objectivityChange.put("who", "him");   objectivityChange.put("him", "who");
-            objectivityChange.put("what", "me");   objectivityChange.put("me", "what");
-
-            // map verb form to bad/opposite verb form
-            verbFormChange = new EnumMap<Form, Form>(Form.class);
-            verbFormChange.put(Form.BARE_INFINITIVE,   Form.PRESENT_PARTICIPLE);
-            verbFormChange.put(Form.INFINITIVE,        Form.PRESENT_PARTICIPLE);
-            verbFormChange.put(Form.IMPERATIVE,        Form.PRESENT_PARTICIPLE);
-            verbFormChange.put(Form.GERUND,            Form.BARE_INFINITIVE);
-            verbFormChange.put(Form.PRESENT_PARTICIPLE,Form.BARE_INFINITIVE);
-            verbFormChange.put(Form.PAST_PARTICIPLE,   Form.BARE_INFINITIVE);
-            verbFormChange.put(Form.NORMAL,            Form.BARE_INFINITIVE);
         }
+        
+        final Lexicon lexicon;
+        final NLGFactory factory;
+        final Realiser realiser;
+    }
+    
+    /**
+     * The models and lexicon shared by sessions: the toolkits, once initialized, and the SimpleNLG lexicon,
+     * loaded when it is first needed. The toolkits are thread-safe once initialized.
+     */
+    private static final class Core
+    {
+        synchronized SimpleNLG getSimpleNLG()
+        {
+            if(simpleNLG == null)
+                simpleNLG = new SimpleNLG();
+            return simpleNLG;
+        }
+        
+        volatile Toolkit opennlpToolkit;
+        volatile Toolkit stanfordToolkit;
+        private SimpleNLG simpleNLG;
+    }
+    
+    private static Set<String> createPluralNounTags()
+    {
+        final Set<String> pluralNounTags = new TreeSet<String>() ;
+        pluralNounTags.add("NNS");
+        pluralNounTags.add("NNPS");
+        return Collections.unmodifiableSet(pluralNounTags);
+    }
+    
+    private static Map<String, Form> createVerbForms()
+    {
+        // map tag to verb form
+        final Map<String, Form> verbForm = new TreeMap<String, Form>();
+        verbForm.put("VB",     Form.BARE_INFINITIVE);
+        verbForm.put("VBD",    Form.PAST_PARTICIPLE);
+        verbForm.put("VBG",    Form.PRESENT_PARTICIPLE);
+        verbForm.put("VBN",    Form.BARE_INFINITIVE);
+        verbForm.put("VBP",    Form.BARE_INFINITIVE);
+        verbForm.put("VBZ",    Form.NORMAL);
+        return Collections.unmodifiableMap(verbForm);
+    }
+    
+    private static Map<Person, Person> createPersonChanges()
+    {
+        final Map<Person, Person> personChange = new EnumMap<Person, Person>(Person.class);
+        personChange.put(Person.FIRST, Person.THIRD);
+        personChange.put(Person.SECOND, Person.THIRD);
+        personChange.put(Person.THIRD, Person.FIRST);
+        return Collections.unmodifiableMap(personChange);
+    }
+    
+    private static Map<String, String> createDeterminerChanges()
+    {
+        final Map<String, String> determinerChange = new TreeMap<String, String>();
+        determinerChange.put("the", "a");
+        determinerChange.put("some", "a");
+        determinerChange.put("a", "the");
+        determinerChange.put("an", "the");
+        determinerChange.put("this", "these");
+        determinerChange.put("these", "this");
+        determinerChange.put("that", "those");
+        determinerChange.put("those", "that");
+        determinerChange.put("what", "which");
+        determinerChange.put("which", "what");
+        determinerChange.put("whatever", "whichever");
+        determinerChange.put("whichever", "whatever");
+        determinerChange.put("all", "a");
+        return Collections.unmodifiableMap(determinerChange);
+    }
+    
+    private static Map<String, String> createObjectivityChanges()
+    {
+        // bimap of subjective to objective pronouns
+        final Map<String, String> objectivityChange = new TreeMap<String, String>();
+        objectivityChange.put("I", "me");      objectivityChange.put("me", "I");
+        objectivityChange.put("he", "him");    objectivityChange.put("him", "he");
+        objectivityChange.put("she", "her");   objectivityChange.put("her", "she");
+        objectivityChange.put("it", "me");     objectivityChange.put("me", "it");
+        objectivityChange.put("we", "us");     objectivityChange.put("us", "we");
+        objectivityChange.put("you", "me");    objectivityChange.put("me", "you");
+        objectivityChange.put("they", "them"); objectivityChange.put("them", "they");
+        objectivityChange.put("who", "him");   objectivityChange.put("him", "who");
+        objectivityChange.put("what", "me");   objectivityChange.put("me", "what");
+        return Collections.unmodifiableMap(objectivityChange);
+    }
+    
+    private static Map<Form, Form> createVerbFormChanges()
+    {
+        // map verb form to bad/opposite verb form
+        final Map<Form, Form> verbFormChange = new EnumMap<Form, Form>(Form.class);
+        verbFormChange.put(Form.BARE_INFINITIVE,   Form.PRESENT_PARTICIPLE);
+        verbFormChange.put(Form.INFINITIVE,        Form.PRESENT_PARTICIPLE);
+        verbFormChange.put(Form.IMPERATIVE,        Form.PRESENT_PARTICIPLE);
+        verbFormChange.put(Form.GERUND,            Form.BARE_INFINITIVE);
+        verbFormChange.put(Form.PRESENT_PARTICIPLE,Form.BARE_INFINITIVE);
+        verbFormChange.put(Form.PAST_PARTICIPLE,   Form.BARE_INFINITIVE);
+        verbFormChange.put(Form.NORMAL,            Form.BARE_INFINITIVE);
+        return Collections.unmodifiableMap(verbFormChange);
     }
     
     private String changePlurality(String word, String tag)
     {
-        initSimpleNLG();
-        final LexicalCategory lc = getPOSType(tag).category;
-        final NLGElement e = nlgfactory.createWord(word, lc);
-        String result = null;
-       
         if(word.length() < 2)
             return word;
         
-        switch(lc)
+        final SimpleNLG nlg = core.getSimpleNLG();
+        final LexicalCategory lc = getPOSType(tag).category;
+        String result = null;
+        synchronized(nlg)
         {
-            case NOUN:
-                e.setFeature(Feature.NUMBER, isPluralNounTag(tag) ? NumberAgreement.PLURAL : NumberAgreement.SINGULAR);
-                result = realiser.realise(e).getRealisation();
-                break;
+            final NLGElement e = nlg.factory.createWord(word, lc);
+            switch(lc)
+            {
+                case NOUN:
+                    e.setFeature(Feature.NUMBER, isPluralNounTag(tag) ? NumberAgreement.PLURAL : NumberAgreement.SINGULAR);
+                    result = nlg.realiser.realise(e).getRealisation();
+                    break;
+                
+                case PRONOUN:
+                    Object nf = e.getFeature(Feature.NUMBER);
+                    if(nf != null)
+                    {
+                        // switch up number
+                        NumberAgreement na = (NumberAgreement)nf == NumberAgreement.SINGULAR ? NumberAgreement.PLURAL : NumberAgreement.SINGULAR;
+                        e.setFeature(Feature.NUMBER, na);
+                    }
+                    result = nlg.realiser.realise(e).getRealisation();
+                    break;
                 
-            case PRONOUN:
-                Object nf = e.getFeature(Feature.NUMBER);
-                if(nf != null)
+                case DETERMINER:
                 {
-                    // switch up number
-                    NumberAgreement na = (NumberAgreement)nf == NumberAgreement.SINGULAR ? NumberAgreement.PLURAL : NumberAgreement.SINGULAR;
-                    e.setFeature(Feature.NUMBER, na);
+                    String bd = DETERMINER_CHANGES.get(word.toLowerCase());     
+                    result = bd == null ? word : bd;
                 }
-                result = realiser.realise(e).getRealisation();
-                break;
-                
-            case DETERMINER:
-            {
-                String bd = determinerChange.get(word.toLowerCase());     
-                result = bd == null ? word : bd;
             }
-        }
 
-        e.setFeature(Feature.NUMBER, null);
+            e.setFeature(Feature.NUMBER, null);
+        }
                 
         return 
         Character.isUpperCase(word.charAt(0)) ? 
@@ -2592,30 +3285,32 @@ public class GrammarTools
     
     private String changePerson(String word, String tag)
     {        
-        initSimpleNLG();
+        final SimpleNLG nlg = core.getSimpleNLG();
         final LexicalCategory lc = getPOSType(tag).category;
-        final NLGElement e = nlgfactory.createWord(word, lc);
-
-        Object nf = e.getFeature(Feature.PERSON);
-        if(nf != null)
+        synchronized(nlg)
         {
-            Person p = personChange.get((Person)nf);
-            if(p != null)
+            final NLGElement e = nlg.factory.createWord(word, lc);
+
+            Object nf = e.getFeature(Feature.PERSON);
+            if(nf != null)
             {
-                e.setFeature(Feature.PERSON, p);
+                Person p = PERSON_CHANGES.get((Person)nf);
+                if(p != null)
+                {
+                    e.setFeature(Feature.PERSON, p);
+                }
             }
+
+            String result = nlg.realiser.realise(e).getRealisation();
+            e.setFeature(Feature.PERSON, null);
+            return result;
         }
-        
-        String result = realiser.realise(e).getRealisation();
-        e.setFeature(Feature.PERSON, null);
-        return result;
     }
     
     private String changePronounObjectivity(String pronoun)
     {
-        initSimpleNLG();
         boolean capital = Character.isUpperCase(pronoun.charAt(0));
-        String bo = objectivityChange.get(pronoun.toLowerCase());     
+        String bo = OBJECTIVITY_CHANGES.get(pronoun.toLowerCase());     
         if(bo == null)
             return pronoun;
         else if(capital)
@@ -2626,16 +3321,20 @@ public class GrammarTools
     
     private String changeVerbForm(String verb, String tag)
     {
-        initSimpleNLG();
+        final SimpleNLG nlg = core.getSimpleNLG();
         boolean capital = Character.isUpperCase(verb.charAt(0));
-        Form badForm = verbFormChange.get(getVerbForm(tag)); 
+        Form badForm = VERB_FORM_CHANGES.get(getVerbForm(tag)); 
         if(badForm == null)
             badForm = Form.PRESENT_PARTICIPLE;
         
-        NLGElement e = nlgfactory.createWord(verb, getPOSType(tag).category);
-        e.setFeature(Feature.FORM, badForm);
-        String result = realiser.realise(e).getRealisation();
-        e.setFeature(Feature.FORM, null); // clear the feature we just set
+        String result;
+        synchronized(nlg)
+        {
+            NLGElement e = nlg.factory.createWord(verb, getPOSType(tag).category);
+            e.setFeature(Feature.FORM, badForm);
+            result = nlg.realiser.realise(e).getRealisation();
+            e.setFeature(Feature.FORM, null); // clear the feature we just set
+        }
         if(capital)
             result = Character.toUpperCase(result.charAt(0)) + result.substring(1);
         
@@ -2644,16 +3343,20 @@ public class GrammarTools
     
     private String[] getUniqueVerbForms(String verb)
     {
-        initSimpleNLG();
+        final SimpleNLG nlg = core.getSimpleNLG();
         final boolean capital = Character.isUpperCase(verb.charAt(0));
         
         Set<String> forms = new HashSet<String>();
         for(Form form : Form.values())
         {        
-            NLGElement e = nlgfactory.createWord(verb, LexicalCategory.VERB);
-            e.setFeature(Feature.FORM, form);
-            String result = realiser.realise(e).getRealisation();
-            e.setFeature(Feature.FORM, null); // clear the feature we just set
+            String result;
+            synchronized(nlg)
+            {
+                NLGElement e = nlg.factory.createWord(verb, LexicalCategory.VERB);
+                e.setFeature(Feature.FORM, form);
+                result = nlg.realiser.realise(e).getRealisation();
+                e.setFeature(Feature.FORM, null); // clear the feature we just set
+            }
             if(capital)
             {
                 result = Character.toUpperCase(result.charAt(0)) + result.substring(1);
@@ -2735,6 +3438,17 @@ public class GrammarTools
                 if(tags.isEmpty())
                     break;
                 
+                // pos types of the available tags
+                final Set<POSType> availablePOSTypes = EnumSet.noneOf(POSType.class);
+                for(String tag : tags)
+                {
+                    for(POSType pt : POSType.values())
+                    {
+                        if(pt.contains(tag))
+                            availablePOSTypes.add(pt);
+                    }
+                }
+                
                 int totalWeight = 0;
                 for(ErrorType et : o.errorTypes)
                 {
@@ -2744,7 +3458,7 @@ public class GrammarTools
                     // for every pos type, check if any of its tags are in availableTags
                     for(POSType pt : et.posTypes)
                     {
-                        if(!Collections.disjoint(Arrays.asList(pt.tags), tags)
+                        if(availablePOSTypes.contains(pt)
                            || pt == POSType.OTHER)
                         {
                             validErrorTypes.add(et);
@@ -2801,7 +3515,7 @@ public class GrammarTools
                     
                     for(POSType pt : errorType.posTypes)
                     {
-                        if(Arrays.asList(pt.tags).contains(et.tag) || pt == POSType.OTHER)
+                        if(pt.contains(et.tag) || pt == POSType.OTHER)
                         {
                             indexes.add(i);
                             break;
@@ -2940,32 +3654,49 @@ public class GrammarTools
         return iMin;
     }
    
-    private static Prolog createGrammar(String grammarFile) 
+    /**
+     * Loads a DCG grammar, or gets it from the grammars already loaded if its file has not changed.
+     * @param grammarFile   location of the Prolog DCG grammar
+     * @return              the grammar, which can be queried concurrently
+     * @see Grammars#load(String)
+     */
+    private static Grammar createGrammar(String grammarFile, String screenGrammarFile, String verdictFile) 
             throws InvalidTheoryException, InvalidLibraryException, FileNotFoundException, IOException
     {
-        Prolog engine = new Prolog();
-        engine.loadLibrary(new DCGLibrary());
-        engine.setTheory(new alice.tuprolog.Theory(new java.io.FileInputStream(grammarFile)));
-        return engine;
+        final Grammar grammar = Grammars.load(grammarFile);
+        if(verdictFile != null && !verdictFile.isEmpty() && grammar instanceof CachedGrammar)
+            ((CachedGrammar)grammar).load(new File(verdictFile));
+        
+        if(screenGrammarFile == null || screenGrammarFile.isEmpty())
+            return grammar;
+        return new TwoStageGrammar(Grammars.load(screenGrammarFile), grammar);
     }
     
-    private static SolveInfo queryGrammar(Prolog engine, String goal, String[] terms) 
-            throws MalformedGoalException
+    /**
+     * Reports how many DCG queries were answered from the grammar's verdict cache, and saves its verdicts.
+     * @param grammar       the grammar used by the run, or null
+     * @param verdictFile   file to save the verdicts to, or null
+     */
+    private void finishGrammar(Grammar grammar, String verdictFile)
     {
-        goal = goal.toLowerCase();
+        if(grammar instanceof CachedGrammar || grammar instanceof TwoStageGrammar)
+            updateUI(1, "<" + grammar + ">\n");
         
-        String termlist = "[";
-        for( int i = 0; i < terms.length; ++i )
+        // the verdicts saved are those of the grammar, not of its screen
+        if(grammar instanceof TwoStageGrammar)
+            grammar = ((TwoStageGrammar)grammar).getGrammar();
+        if(grammar instanceof CachedGrammar && verdictFile != null && !verdictFile.isEmpty())
         {
-            String t = terms[i].toLowerCase();
-            if(!t.matches("[a-z]\\w*"))
-                t = "'" + t.replaceAll( "'", "''" ) + "'";
-
-            termlist += t + (i < terms.length - 1 ?  "," : "");
+            try
+            {
+                ((CachedGrammar)grammar).save(new File(verdictFile));
+            }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+                updateUI(1, "<Could not save DCG verdicts: " + verdictFile + "\n" + e.getLocalizedMessage() + ">\n");
+            }
         }
-        termlist += "]";
-        
-        return engine.solve("phrase(" + goal + ", " + termlist + ").");
     }
   
     private static final String PRE_HEX  = "_x";
@@ -2988,12 +3719,14 @@ public class GrammarTools
     private static final String OPENNLP_TOKEN_MODEL = "english" + SEP + "en-token.bin";
     private static final String OPENNLP_SENT_MODEL  = "english" + SEP + "en-sent.bin";
     private static final String OPENNLP_TAG_MODEL   = "english" + SEP + "en-pos-maxent.bin";
-    //private static final String OPENNLP_TAG_MODEL = "english" + SEP + "en-pos-perceptron";
-    //private static final String OPENNLP_TAG_DICT    = "english" + SEP + "tagdict";
+    private static final String OPENNLP_TAG_PERCEPTRON_MODEL = "english" + SEP + "en-pos-perceptron.bin";
+    private static final String OPENNLP_TAG_DICT    = "english" + SEP + "tagdict";
     private static final String OPENNLP_CHUNK_MODEL = "english" + SEP + "en-chunker.bin";
     private static final String OPENNLP_PARSE_MODEL = "english" + SEP + "en-parser-chunking.bin";
     
     private static final String STANFORD_TAG_SUBPATH    = "english" + SEP + "postag" + SEP + "left3words-distsim.tagger";
+    private static final String STANFORD_TAG_WSJ_SUBPATH = "english" + SEP + "postag" + SEP + "left3words-wsj-0-18.tagger";
+    private static final String STANFORD_TAG_BIDIRECTIONAL_SUBPATH = "english" + SEP + "postag" + SEP + "bidirectional-distsim.tagger";
     private static final String STANFORD_PARSE_SUBPATH  = "english" + SEP + "parser" + SEP + "englishPCFG.ser.gz";
     
     private static final double DEF_K_VALUE = 1.15;
@@ -3001,28 +3734,83 @@ public class GrammarTools
     private static final int DEF_PROB_PRECISION = 2;
     private static final int DEF_MAX_RESULTS = 1;
     private static final long DEF_MAX_ITEM_PROCESS_TIME = 0;
+    private static final long ITEM_STOP_GRACE_TIME = 500;
+    private static final long BATCH_WATCH_INTERVAL = 100;
+    private static final int DEF_MAX_SENTENCE_LENGTH = 0;
+    private static final int DEF_THREADS = 1;
+    private static final int MIN_SEGMENT_LENGTH = 3;
+    private static final int VARIANT_CACHE_SIZE = 4096;
+    private static final ToolkitProfile DEF_TOOLKIT_PROFILE = ToolkitProfile.BALANCED;
     
-    private Lexicon lexicon;
-    private NLGFactory nlgfactory;
-    private Realiser realiser;
-    private Map<Form, Form> verbFormChange;
-    private Map<Person, Person> personChange;
-    private Map<String, String> objectivityChange;
-    private Map<String, String> determinerChange;
-    private Map<String, Form> verbForm;
-    private Set<String> pluralNounTags;
+    private static final Set<String> PLURAL_NOUN_TAGS = createPluralNounTags();
+    private static final Map<String, Form> VERB_FORMS = createVerbForms();
+    private static final Map<Person, Person> PERSON_CHANGES = createPersonChanges();
+    private static final Map<String, String> DETERMINER_CHANGES = createDeterminerChanges();
+    private static final Map<String, String> OBJECTIVITY_CHANGES = createObjectivityChanges();
+    private static final Map<Form, Form> VERB_FORM_CHANGES = createVerbFormChanges();
     
-    private Toolkit opennlpToolkit;
-    private Toolkit stanfordToolkit;
+    private final Core core;
     
     private UIWorker uiWorker;
+    private final List<Thread> abandonedItems = new LinkedList<Thread>();
+    private int abandonedItemCount;
+    
+    /**
+     * Named speed/accuracy trade-offs for the models and search settings used by the toolkits.
+     * Throughput of a profile on a given corpus is reported by the dataset console app (sentences/s).
+     */
+    public static enum ToolkitProfile
+    {
+        // perceptron tagger pruned by the tag dictionary, narrow beams, left3words tagger without distsim,
+        // PCFG refuses sentences over 60 tokens
+        FAST        (OPENNLP_TAG_PERCEPTRON_MODEL, true,  2, 1000, 5, 0.90, STANFORD_TAG_WSJ_SUBPATH, 60),
+        // library defaults
+        BALANCED    (OPENNLP_TAG_MODEL, false, opennlp.tools.postag.POSTaggerME.DEFAULT_BEAM_SIZE, 0,
+                     opennlp.tools.parser.AbstractBottomUpParser.defaultBeamSize, 
+                     opennlp.tools.parser.AbstractBottomUpParser.defaultAdvancePercentage, STANFORD_TAG_SUBPATH, 0),
+        // wide beams, bidirectional tagger
+        ACCURATE    (OPENNLP_TAG_MODEL, false, 10, 0, 40, 0.98, STANFORD_TAG_BIDIRECTIONAL_SUBPATH, 0);
+        
+        private ToolkitProfile(String opennlpTagModel, boolean useTagDict, int tagBeamSize, int tagCacheSize,
+                               int parseBeamSize, double parseAdvancePercentage, String stanfordTagModel,
+                               int stanfordMaxLength)
+        {
+            this.opennlpTagModel = opennlpTagModel;
+            this.useTagDict = useTagDict;
+            this.tagBeamSize = tagBeamSize;
+            this.tagCacheSize = tagCacheSize;
+            this.parseBeamSize = parseBeamSize;
+            this.parseAdvancePercentage = parseAdvancePercentage;
+            this.stanfordTagModel = stanfordTagModel;
+            this.stanfordMaxLength = stanfordMaxLength;
+        }
+        
+        @Override
+        public String toString() { return name().toLowerCase(); }
+        
+        public static ToolkitProfile fromString(String name)
+        {
+            return valueOf(name.trim().toUpperCase());
+        }
+        
+        private final String opennlpTagModel;
+        private final boolean useTagDict;
+        private final int tagBeamSize;
+        private final int tagCacheSize;
+        private final int parseBeamSize;
+        private final double parseAdvancePercentage;
+        private final String stanfordTagModel;
+        private final int stanfordMaxLength;   // 0 is infinite
+    }
     
     public static class Toolkit
     {
-        public Toolkit(String name) { this.name = name; }
+        public Toolkit(String name) { this(name, DEF_TOOLKIT_PROFILE); }
+        public Toolkit(String name, ToolkitProfile profile) { this.name = name; this.profile = profile; }
         @Override
         public String toString() { return "--- " + name + " ---"; }
         public final String name;
+        public final ToolkitProfile profile;
         public SentenceSplitter sentenceSplitter;
         public Tokenizer tokenizer;
         public Tagger tagger;
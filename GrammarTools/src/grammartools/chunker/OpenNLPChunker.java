@@ -1,7 +1,8 @@
 package grammartools.chunker;
 
 /**
- * Chunker based on OpenNLP
+ * Chunker based on OpenNLP.
+ * The model is shared, each thread chunks with its own ChunkerME so the chunker can be used concurrently.
  */
 public class OpenNLPChunker
         implements Chunker 
@@ -10,9 +11,16 @@ public class OpenNLPChunker
             throws java.io.IOException 
     {    
         java.io.InputStream in = new java.io.FileInputStream(modelFile);
-        chunker = new opennlp.tools.chunker.ChunkerME(
-                new opennlp.tools.chunker.ChunkerModel(in));        
+        final opennlp.tools.chunker.ChunkerModel model = new opennlp.tools.chunker.ChunkerModel(in);
         in.close();
+        
+        chunker = new ThreadLocal<opennlp.tools.chunker.ChunkerME>()
+        {
+            @Override protected opennlp.tools.chunker.ChunkerME initialValue()
+            {
+                return new opennlp.tools.chunker.ChunkerME(model);
+            }
+        };
     }
 
     /**
@@ -24,6 +32,7 @@ public class OpenNLPChunker
     @Override
     public Chunking chunk( String[] tokens, String[] tags )
     {
+        final opennlp.tools.chunker.ChunkerME chunker = this.chunker.get();
         String[] chunks = chunker.chunk(tokens, tags);
         double[] probs = chunker.probs();
         return new Chunking( tokens, tags, chunks, probs );
@@ -39,7 +48,7 @@ public class OpenNLPChunker
     @Override
     public Chunking[] chunk( String[] tokens, String[] tags, int nBest )
     {
-        opennlp.tools.util.Sequence[] topk = chunker.topKSequences( tokens, tags );
+        opennlp.tools.util.Sequence[] topk = chunker.get().topKSequences( tokens, tags );
         Chunking[] chunkings = new Chunking[ Math.min(topk.length, nBest) ];
         
         for( int i = 0; i < chunkings.length; i++ )
@@ -50,5 +59,5 @@ public class OpenNLPChunker
         return chunkings;
     }
     
-    private final opennlp.tools.chunker.ChunkerME chunker;
+    private final ThreadLocal<opennlp.tools.chunker.ChunkerME> chunker;
 }
@@ -0,0 +1,196 @@
+package grammartools.dcg;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Grammar that remembers the verdicts of another grammar by phrase and tag sequence,
+ * which repeat heavily in real text. The least recently used verdicts are dropped once the cache is full.
+ * The verdicts can be saved to and loaded from a file, so they carry over between runs. Thread-safe.
+ */
+public class CachedGrammar
+        implements Grammar
+{
+    /**
+     * @param grammar   the grammar whose verdicts are cached
+     * @param capacity  maximum number of verdicts kept
+     */
+    public CachedGrammar( Grammar grammar, final int capacity )
+    {
+        this.grammar = grammar;
+        this.verdicts = new LinkedHashMap<String, Boolean>( 16, 0.75f, true )
+        {
+            @Override protected boolean removeEldestEntry( Map.Entry<String, Boolean> eldest )
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public Boolean isParsable( String phrase, String[] tags )
+    {
+        final String key = toKey( phrase, tags );
+        Boolean verdict;
+        synchronized( verdicts )
+        {
+            verdict = verdicts.get( key );
+        }
+        if( verdict != null )
+        {
+            hits.incrementAndGet();
+            return verdict;
+        }
+
+        misses.incrementAndGet();
+        verdict = grammar.isParsable( phrase, tags );
+        if( verdict == null )
+            return null; // unknown verdicts may be known given more budget, so they are not kept
+        synchronized( verdicts )
+        {
+            verdicts.put( key, verdict );
+        }
+        return verdict;
+    }
+
+    public String getFile()
+    {
+        return grammar.getFile();
+    }
+
+    /**
+     * @return the grammar whose verdicts are cached
+     */
+    public Grammar getGrammar()
+    {
+        return grammar;
+    }
+
+    /**
+     * @return number of queries answered from the cache
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return number of queries passed on to the grammar
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Loads verdicts saved by {@link #save(File)}, unless the grammar file has changed since they were saved.
+     * @param file  the file of saved verdicts; nothing is loaded if it does not exist
+     * @return      number of verdicts loaded
+     */
+    public int load( File file )
+            throws IOException
+    {
+        if( !file.exists() )
+            return 0;
+
+        final BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+        try
+        {
+            if( !toHeader().equals( in.readLine() ) )
+                return 0;
+
+            final List<String[]> lines = new ArrayList<String[]>();
+            for( String line = in.readLine(); line != null; line = in.readLine() )
+            {
+                final String[] fields = line.split( "\t", 2 );
+                if( fields.length == 2 )
+                    lines.add( fields );
+            }
+            synchronized( verdicts )
+            {
+                for( String[] fields : lines )
+                {
+                    if( !verdicts.containsKey( fields[1] ) )
+                        verdicts.put( fields[1], "1".equals( fields[0] ) );
+                }
+            }
+            return lines.size();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the verdicts in the cache, replacing the file.
+     * @param file  the file to save the verdicts to
+     */
+    public void save( File file )
+            throws IOException
+    {
+        final List<Map.Entry<String, Boolean>> entries;
+        synchronized( verdicts )
+        {
+            entries = new ArrayList<Map.Entry<String, Boolean>>( verdicts.entrySet() );
+        }
+
+        final File tmp = new File( file.getPath() + ".tmp" );
+        final PrintWriter out = new PrintWriter( new OutputStreamWriter( new FileOutputStream( tmp ), "UTF-8" ) );
+        try
+        {
+            out.println( toHeader() );
+            for( Map.Entry<String, Boolean> e : entries )
+                out.println( (e.getValue() ? "1" : "0") + "\t" + e.getKey() );
+        }
+        finally
+        {
+            out.close();
+        }
+        if( out.checkError() )
+            throw new IOException( "Could not write " + tmp );
+        if( !tmp.renameTo( file ) && !(file.delete() && tmp.renameTo( file )) )
+            throw new IOException( "Could not replace " + file );
+    }
+
+    @Override
+    public String toString()
+    {
+        final long h = hits.get(), n = h + misses.get();
+        return "DCG verdicts: " + n + " queries, " + h + " from cache"
+                + (n > 0 ? String.format( " (%.1f%%)", 100.0 * h / n ) : "");
+    }
+
+    private String toHeader()
+            throws IOException
+    {
+        // verdicts only hold for the grammar file as it was when they were saved
+        final File grammarFile = new File( grammar.getFile() ).getCanonicalFile();
+        return "# " + grammarFile.getPath() + "\t" + grammarFile.lastModified() + "\t" + grammarFile.length();
+    }
+
+    private static String toKey( String phrase, String[] tags )
+    {
+        // the grammar matches phrases and tags as lowercase atoms
+        final StringBuilder key = new StringBuilder( phrase.toLowerCase( Locale.ENGLISH ) );
+        for( String t : tags )
+            key.append( ' ' ).append( t.toLowerCase( Locale.ENGLISH ) );
+        return key.toString();
+    }
+
+    private final Grammar grammar;
+    private final Map<String, Boolean> verdicts;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+}
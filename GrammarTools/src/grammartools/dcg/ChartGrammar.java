@@ -0,0 +1,580 @@
+package grammartools.dcg;
+
+import alice.tuprolog.InvalidLibraryException;
+import alice.tuprolog.InvalidTermException;
+import alice.tuprolog.Struct;
+import alice.tuprolog.Term;
+import alice.tuprolog.Theory;
+import alice.tuprolog.Var;
+import grammartools.util.PennTreebankTags;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Grammar compiled from the DCG rules of a Prolog grammar file into a chart parser.
+ * The rules are grounded over the atoms used as non-terminal arguments (the features, e.g. tense and number),
+ * and tag sequences are recognized by an Earley parser over tag ids from {@link PennTreebankTags},
+ * in polynomial time instead of by backtracking. The compiled grammar is immutable, so it is thread-safe.
+ * A query that needs more than a maximum number of chart items has an unknown verdict.
+ * <p>
+ * Only plain DCG rules are compiled: non-terminals whose arguments are atoms or variables, and terminal lists of atoms.
+ * For grammars with anything else (Prolog clauses, {}/1 goals, cuts, disjunctions, ...) {@link #compile(String)}
+ * returns null, and the grammar should be solved with {@link PrologGrammar} instead.
+ */
+public class ChartGrammar
+        implements Grammar
+{
+    private ChartGrammar( String file, String[] sources, Map<String, Integer> symbols, int[] lhs, int[][] rhs, int[] source, int maxItems )
+    {
+        this.file = file;
+        this.maxItems = maxItems;
+        this.sources = sources;
+        this.symbols = symbols;
+        this.lhs = lhs;
+        this.rhs = rhs;
+        this.source = source;
+
+        // index the rules by their left-hand side
+        final int nSymbols = symbols.size();
+        final int[] counts = new int[nSymbols];
+        for( int r = 0; r < lhs.length; r++ )
+            counts[lhs[r]]++;
+        rules = new int[nSymbols][];
+        for( int a = 0; a < nSymbols; a++ )
+            rules[a] = new int[counts[a]];
+        Arrays.fill( counts, 0 );
+        for( int r = 0; r < lhs.length; r++ )
+            rules[lhs[r]][counts[lhs[r]]++] = r;
+
+        // find the non-terminals that derive the empty sequence
+        nullable = new boolean[nSymbols];
+        for( boolean changed = true; changed; )
+        {
+            changed = false;
+            for( int r = 0; r < lhs.length; r++ )
+            {
+                if( nullable[lhs[r]] )
+                    continue;
+                boolean empty = true;
+                for( int s : rhs[r] )
+                    empty &= s >= 0 && nullable[s];
+                if( empty )
+                    changed = nullable[lhs[r]] = true;
+            }
+        }
+    }
+
+    /**
+     * Compiles the DCG rules of a grammar file.
+     * @param grammarFile   location of the Prolog DCG grammar
+     * @return              the compiled grammar, or null if the grammar has constructs that cannot be compiled
+     *                      (or cannot be read as Prolog at all)
+     */
+    public static ChartGrammar compile( String grammarFile )
+            throws InvalidLibraryException, IOException
+    {
+        return compile( grammarFile, DEF_MAX_ITEMS );
+    }
+
+    /**
+     * Compiles the DCG rules of a grammar file.
+     * @param grammarFile   location of the Prolog DCG grammar
+     * @param maxItems      number of chart items a query may create before its verdict is unknown
+     * @return              the compiled grammar, or null if the grammar has constructs that cannot be compiled
+     *                      (or cannot be read as Prolog at all)
+     */
+    public static ChartGrammar compile( String grammarFile, int maxItems )
+            throws InvalidLibraryException, IOException
+    {
+        final List<Struct> clauses = new ArrayList<Struct>();
+        final InputStream in = new FileInputStream( grammarFile );
+        try
+        {
+            final Iterator<? extends Term> terms = new Theory( in ).iterator( PrologGrammar.createEngine() );
+            while( terms.hasNext() )
+            {
+                final Term t = terms.next();
+                if( !(t instanceof Struct) || !((Struct)t).getName().equals( "-->" ) || ((Struct)t).getArity() != 2 )
+                    return null;
+                clauses.add( (Struct)t );
+            }
+        }
+        catch( InvalidTermException e )
+        {
+            return null;
+        }
+        finally
+        {
+            in.close();
+        }
+
+        final Compiler compiler = new Compiler();
+        for( Struct clause : clauses )
+        {
+            if( !compiler.add( clause.getTerm( 0 ), clause.getTerm( 1 ) ) )
+                return null;
+        }
+        return compiler.compile( grammarFile, maxItems );
+    }
+
+    public Boolean isParsable( String phrase, String[] tags )
+    {
+        return isParsable( phrase, tags, null );
+    }
+
+    /**
+     * Checks a sequence of tags like {@link #isParsable(String, String[])}, counting the work done for each rule.
+     * @param counts    counts to add to, indexed like {@link #getRules()}, or null
+     */
+    Boolean isParsable( String phrase, String[] tags, Counts counts )
+    {
+        if( tags.length > 0xFFFF )
+            throw new IllegalArgumentException( "Too many tags: " + tags.length );
+        final Integer goal = symbols.get( phrase.toLowerCase( Locale.ENGLISH ) + "/0" );
+        if( goal == null )
+            return false;
+
+        final int[] input = new int[tags.length];
+        for( int i = 0; i < tags.length; i++ )
+            input[i] = PennTreebankTags.find( tags[i].toUpperCase( Locale.ENGLISH ) );
+
+        return new Chart( input, counts ).recognize( goal );
+    }
+
+    public String getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return the rules of the grammar file, as written there (before grounding)
+     */
+    public String[] getRules()
+    {
+        return sources.clone();
+    }
+
+    /**
+     * Work done for each rule of the grammar file while recognizing tag sequences.
+     */
+    static final class Counts
+    {
+        Counts( int nRules )
+        {
+            invoked = new long[nRules];
+            succeeded = new long[nRules];
+            items = new long[nRules];
+        }
+
+        final long[] invoked;   // predictions of the rule at a position
+        final long[] succeeded; // predictions that were completed, i.e. matched some tags
+        final long[] items;     // chart items of the rule, the work of recognizing it
+    }
+
+    /**
+     * Earley recognizer state for one tag sequence.
+     * Items (rule, dot, origin) are kept per position in packed longs, with a hash set per position to drop duplicates.
+     */
+    private final class Chart
+    {
+        Chart( int[] input, Counts counts )
+        {
+            this.input = input;
+            this.counts = counts;
+            this.completed = counts != null ? new ItemSet() : null;
+            this.items = new long[input.length + 1][];
+            this.sizes = new int[input.length + 1];
+            this.seen = new ItemSet[input.length + 1];
+            for( int i = 0; i <= input.length; i++ )
+            {
+                items[i] = new long[16];
+                seen[i] = new ItemSet();
+            }
+        }
+
+        /**
+         * @return whether the input is a phrase of the goal, or null if the chart grew past its maximum
+         */
+        Boolean recognize( int goal )
+        {
+            for( int r : rules[goal] )
+                add( 0, r, 0, 0 );
+
+            for( int i = 0; i <= input.length; i++ )
+            {
+                // the items of a position grow while they are processed
+                for( int k = 0; k < sizes[i]; k++ )
+                {
+                    if( nItems > maxItems )
+                        return null;
+
+                    final long item = items[i][k];
+                    final int r = rule( item ), dot = dot( item ), origin = origin( item );
+                    if( dot == rhs[r].length )
+                    {
+                        if( counts != null && completed.add( ((long)r << 32) | origin ) )
+                            counts.succeeded[source[r]]++;
+
+                        // complete the items of the origin waiting for this non-terminal
+                        final int a = lhs[r];
+                        for( int j = 0; j < sizes[origin]; j++ )
+                        {
+                            final long waiting = items[origin][j];
+                            final int wr = rule( waiting ), wdot = dot( waiting );
+                            if( wdot < rhs[wr].length && rhs[wr][wdot] == a )
+                                add( i, wr, wdot + 1, origin( waiting ) );
+                        }
+                        continue;
+                    }
+
+                    final int s = rhs[r][dot];
+                    if( s >= 0 )
+                    {
+                        // predict the non-terminal, stepping over it straight away if it can be empty
+                        for( int p : rules[s] )
+                            add( i, p, 0, i );
+                        if( nullable[s] )
+                            add( i, r, dot + 1, origin );
+                    }
+                    else if( i < input.length && ~s == input[i] )
+                    {
+                        // scan the tag
+                        add( i + 1, r, dot + 1, origin );
+                    }
+                }
+            }
+
+            final int n = input.length;
+            for( int k = 0; k < sizes[n]; k++ )
+            {
+                final long item = items[n][k];
+                if( origin( item ) == 0 && lhs[rule( item )] == goal && dot( item ) == rhs[rule( item )].length )
+                    return true;
+            }
+            return false;
+        }
+
+        private void add( int i, int rule, int dot, int origin )
+        {
+            final long item = ((long)rule << 32) | ((long)dot << 16) | origin;
+            if( !seen[i].add( item ) )
+                return;
+            if( sizes[i] == items[i].length )
+                items[i] = Arrays.copyOf( items[i], sizes[i] * 2 );
+            items[i][sizes[i]++] = item;
+            nItems++;
+            if( counts != null )
+            {
+                counts.items[source[rule]]++;
+                if( dot == 0 )
+                    counts.invoked[source[rule]]++;
+            }
+        }
+
+        private final int[]     input;
+        private final Counts    counts;
+        private final ItemSet   completed;  // (rule, origin) of the completed items, when counting
+        private final long[][]  items;
+        private final int[]     sizes;
+        private final ItemSet[] seen;
+        private int             nItems;
+    }
+
+    private static int rule( long item )
+    {
+        return (int)(item >>> 32);
+    }
+
+    private static int dot( long item )
+    {
+        return (int)(item >>> 16) & 0xFFFF;
+    }
+
+    private static int origin( long item )
+    {
+        return (int)item & 0xFFFF;
+    }
+
+    /**
+     * Open-addressing hash set of packed items.
+     */
+    private static final class ItemSet
+    {
+        boolean add( long item )
+        {
+            if( size * 2 >= table.length )
+                grow();
+            final long key = item + 1; // 0 marks a free slot
+            int h = hash( key ) & (table.length - 1);
+            while( table[h] != 0 )
+            {
+                if( table[h] == key )
+                    return false;
+                h = (h + 1) & (table.length - 1);
+            }
+            table[h] = key;
+            size++;
+            return true;
+        }
+
+        private void grow()
+        {
+            final long[] old = table;
+            table = new long[old.length * 2];
+            for( long key : old )
+            {
+                if( key == 0 )
+                    continue;
+                int h = hash( key ) & (table.length - 1);
+                while( table[h] != 0 )
+                    h = (h + 1) & (table.length - 1);
+                table[h] = key;
+            }
+        }
+
+        private static int hash( long key )
+        {
+            key *= 0x9E3779B97F4A7C15L;
+            return (int)(key ^ (key >>> 32));
+        }
+
+        private long[] table = new long[32];
+        private int size;
+    }
+
+    /**
+     * Reads DCG rules and grounds them over the atoms used as non-terminal arguments.
+     */
+    private static final class Compiler
+    {
+        /**
+         * Adds a DCG rule.
+         * @return whether the rule could be compiled
+         */
+        boolean add( Term head, Term body )
+        {
+            final List<Term> goals = new ArrayList<Term>();
+            if( !isNonTerminal( head ) || !addGoals( body, goals ) )
+                return false;
+
+            for( Term g : goals )
+                addAtoms( g );
+            addAtoms( head );
+
+            final List<Term> rule = new ArrayList<Term>( goals.size() + 1 );
+            rule.add( head );
+            rule.addAll( goals );
+            rules.add( rule );
+
+            final StringBuilder text = new StringBuilder( toText( head ) ).append( " -->" );
+            for( int g = 0; g < goals.size(); g++ )
+                text.append( g == 0 ? " " : ", " ).append( toText( goals.get( g ) ) );
+            texts.add( text.toString() );
+            return true;
+        }
+
+        ChartGrammar compile( String file, int maxItems )
+        {
+            // a variable can be bound to any of the atoms, or, if there are none, to anything at all
+            final String[] values = atoms.isEmpty() ? new String[]{ "_" } : atoms.toArray( new String[atoms.size()] );
+
+            final Map<String, Integer> symbols = new LinkedHashMap<String, Integer>();
+            final List<int[]> ground = new ArrayList<int[]>();
+            final List<Integer> sourceOfGround = new ArrayList<Integer>();
+            for( int s = 0; s < rules.size(); s++ )
+            {
+                final List<Term> rule = rules.get( s );
+                // number the variables of the rule; each anonymous variable is distinct
+                final Map<String, Integer> vars = new HashMap<String, Integer>();
+                final List<String[]> argVars = new ArrayList<String[]>();
+                for( Term t : rule )
+                    argVars.add( toVarNames( t, vars ) );
+
+                long instances = 1;
+                for( int v = 0; v < vars.size(); v++ )
+                    instances *= values.length;
+                if( ground.size() + instances > MAX_GROUND_RULES )
+                    return null;
+
+                // one rule per binding of the variables
+                final int[] binding = new int[vars.size()];
+                for( long n = 0; n < instances; n++ )
+                {
+                    long b = n;
+                    for( int v = 0; v < binding.length; v++, b /= values.length )
+                        binding[v] = (int)(b % values.length);
+
+                    final List<Integer> symbolsOfRule = new ArrayList<Integer>();
+                    for( int g = 0; g < rule.size(); g++ )
+                    {
+                        final Term t = rule.get( g );
+                        if( t.isList() )
+                        {
+                            final Iterator<? extends Term> tags = ((Struct)t).listIterator();
+                            while( tags.hasNext() )
+                                symbolsOfRule.add( ~toTagId( ((Struct)tags.next()).getName() ) );
+                        }
+                        else
+                        {
+                            final String key = toGroundName( (Struct)t, argVars.get( g ), vars, binding, values );
+                            Integer id = symbols.get( key );
+                            if( id == null )
+                                symbols.put( key, id = symbols.size() );
+                            symbolsOfRule.add( id );
+                        }
+                    }
+
+                    final int[] r = new int[symbolsOfRule.size()];
+                    for( int i = 0; i < r.length; i++ )
+                        r[i] = symbolsOfRule.get( i );
+                    ground.add( r );
+                    sourceOfGround.add( s );
+                }
+            }
+
+            final int[] lhs = new int[ground.size()];
+            final int[][] rhs = new int[ground.size()][];
+            final int[] source = new int[ground.size()];
+            for( int r = 0; r < lhs.length; r++ )
+            {
+                final int[] g = ground.get( r );
+                source[r] = sourceOfGround.get( r );
+                lhs[r] = g[0];
+                rhs[r] = Arrays.copyOfRange( g, 1, g.length );
+                if( rhs[r].length > 0xFFFF )
+                    return null;
+            }
+            return new ChartGrammar( file, texts.toArray( new String[texts.size()] ), symbols, lhs, rhs, source, maxItems );
+        }
+
+        private boolean addGoals( Term body, List<Term> goals )
+        {
+            if( body instanceof Struct && ((Struct)body).getName().equals( "," ) && ((Struct)body).getArity() == 2 )
+                return addGoals( ((Struct)body).getTerm( 0 ), goals ) && addGoals( ((Struct)body).getTerm( 1 ), goals );
+
+            if( body.isList() )
+            {
+                final Iterator<? extends Term> tags = ((Struct)body).listIterator();
+                while( tags.hasNext() )
+                {
+                    if( !tags.next().isAtom() )
+                        return false;
+                }
+                goals.add( body );
+                return true;
+            }
+
+            if( !isNonTerminal( body ) )
+                return false;
+            goals.add( body );
+            return true;
+        }
+
+        private static boolean isNonTerminal( Term t )
+        {
+            if( !(t instanceof Struct) || t.isList() || CONTROL.contains( ((Struct)t).getName() ) )
+                return false;
+            final Struct s = (Struct)t;
+            for( int i = 0; i < s.getArity(); i++ )
+            {
+                final Term arg = s.getTerm( i );
+                if( !(arg instanceof Var) && !arg.isAtom() )
+                    return false;
+            }
+            return true;
+        }
+
+        private void addAtoms( Term t )
+        {
+            if( t.isList() )
+                return;
+            final Struct s = (Struct)t;
+            for( int i = 0; i < s.getArity(); i++ )
+            {
+                if( s.getTerm( i ).isAtom() )
+                    atoms.add( ((Struct)s.getTerm( i )).getName() );
+            }
+        }
+
+        private static String toText( Term t )
+        {
+            if( t.isList() || !(t instanceof Struct) || ((Struct)t).getArity() == 0 )
+                return t.toString();
+            final Struct s = (Struct)t;
+            final StringBuilder text = new StringBuilder( s.getName() );
+            for( int i = 0; i < s.getArity(); i++ )
+            {
+                final Term arg = s.getTerm( i );
+                text.append( i == 0 ? "(" : ", " );
+                text.append( arg instanceof Var ? (((Var)arg).isAnonymous() ? "_" : ((Var)arg).getName()) : arg.toString() );
+            }
+            return text.append( ")" ).toString();
+        }
+
+        private static String[] toVarNames( Term t, Map<String, Integer> vars )
+        {
+            if( t.isList() )
+                return null;
+            final Struct s = (Struct)t;
+            final String[] names = new String[s.getArity()];
+            for( int i = 0; i < names.length; i++ )
+            {
+                final Term arg = s.getTerm( i );
+                if( !(arg instanceof Var) )
+                    continue;
+                final Var v = (Var)arg;
+                names[i] = v.isAnonymous() ? "_#" + vars.size() : v.getName();
+                if( !vars.containsKey( names[i] ) )
+                    vars.put( names[i], vars.size() );
+            }
+            return names;
+        }
+
+        private static String toGroundName( Struct s, String[] varNames, Map<String, Integer> vars, int[] binding, String[] values )
+        {
+            final StringBuilder name = new StringBuilder( s.getName() );
+            for( int i = 0; i < s.getArity(); i++ )
+            {
+                name.append( i == 0 ? '(' : ',' );
+                name.append( varNames[i] != null ? values[binding[vars.get( varNames[i] )]] : ((Struct)s.getTerm( i )).getName() );
+            }
+            return name.append( s.getArity() > 0 ? ")" : "/0" ).toString();
+        }
+
+        private static int toTagId( String atom )
+        {
+            // tags are matched as lowercase atoms, so an atom that is not lowercase matches no tag
+            final String tag = atom.toUpperCase( Locale.ENGLISH );
+            return atom.equals( tag.toLowerCase( Locale.ENGLISH ) ) ? PennTreebankTags.getId( tag ) : NO_TAG;
+        }
+
+        private final List<List<Term>> rules = new ArrayList<List<Term>>();
+        private final List<String> texts = new ArrayList<String>();             // text of each rule
+        private final TreeSet<String> atoms = new TreeSet<String>();
+    }
+
+    private static final List<String> CONTROL = Arrays.asList( "!", "{}", ";", "|", "->", "\\+", "call", "[]" );
+    private static final int MAX_GROUND_RULES = 1 << 16;
+    private static final int DEF_MAX_ITEMS = 1 << 22;
+    private static final int NO_TAG = Integer.MAX_VALUE; // ~NO_TAG matches no tag id
+
+    private final String            file;
+    private final int               maxItems;
+    private final String[]          sources;        // rules of the grammar file, as written there
+    private final Map<String, Integer> symbols;     // ground non-terminals, e.g. "np(r,s)" or "s/0"
+    private final int[]             lhs;            // left-hand side symbol of each rule
+    private final int[][]           rhs;            // right-hand side of each rule: symbols, or ~tag id for tags
+    private final int[]             source;         // rule of the grammar file each (ground) rule comes from
+    private final int[][]           rules;          // rules of each symbol
+    private final boolean[]         nullable;
+}
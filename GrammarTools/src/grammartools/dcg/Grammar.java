@@ -0,0 +1,23 @@
+package grammartools.dcg;
+
+/**
+ * Interface for checking part-of-speech tag sequences against a DCG grammar
+ */
+public interface Grammar
+{
+    /**
+     * Determines whether a sequence of POS tags can be parsed as a phrase of the grammar,
+     * i.e. whether the Prolog goal <code>phrase(phrase, tags)</code> succeeds.
+     * Both the phrase and the tags are matched case-insensitively (as lowercase atoms).
+     * @param phrase    the phrase (non-terminal) to parse, e.g. the label of a parse tree root
+     * @param tags      the POS tags to parse
+     * @return          whether the tags can be parsed as the phrase,
+     *                  or null if that is unknown because the query ran out of budget
+     */
+    Boolean isParsable( String phrase, String[] tags );
+
+    /**
+     * @return the grammar file the grammar was loaded from
+     */
+    String getFile();
+}
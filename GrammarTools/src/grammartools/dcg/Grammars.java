@@ -0,0 +1,59 @@
+package grammartools.dcg;
+
+import alice.tuprolog.InvalidLibraryException;
+import alice.tuprolog.InvalidTheoryException;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads DCG grammars, keeping each grammar for as long as its file is unchanged (by modification time and size),
+ * so tool runs share a loaded grammar, and its pool of Prolog engines, instead of reading the file every time.
+ */
+public final class Grammars
+{
+    private Grammars() {}
+
+    /**
+     * Loads a DCG grammar, compiled to a chart parser when it consists of plain DCG rules,
+     * otherwise to be solved by the Prolog interpreter.
+     * @param grammarFile   location of the Prolog DCG grammar
+     * @return              the grammar, with its verdicts cached, shared with earlier callers if the file has not changed since
+     */
+    public static synchronized Grammar load( String grammarFile )
+            throws InvalidTheoryException, InvalidLibraryException, IOException
+    {
+        final File file = new File( grammarFile ).getCanonicalFile();
+        final long modified = file.lastModified();
+        final long length = file.length();
+
+        final Loaded loaded = LOADED.get( file.getPath() );
+        if( loaded != null && loaded.modified == modified && loaded.length == length )
+            return loaded.grammar;
+
+        Grammar grammar = ChartGrammar.compile( grammarFile );
+        if( grammar == null )
+            grammar = new PrologGrammar( grammarFile );
+        grammar = new CachedGrammar( grammar, VERDICT_CACHE_SIZE );
+        LOADED.put( file.getPath(), new Loaded( grammar, modified, length ) );
+        return grammar;
+    }
+
+    private static final class Loaded
+    {
+        Loaded( Grammar grammar, long modified, long length )
+        {
+            this.grammar = grammar;
+            this.modified = modified;
+            this.length = length;
+        }
+
+        final Grammar grammar;
+        final long modified;
+        final long length;
+    }
+
+    private static final int VERDICT_CACHE_SIZE = 100000;
+    private static final Map<String, Loaded> LOADED = new HashMap<String, Loaded>();
+}
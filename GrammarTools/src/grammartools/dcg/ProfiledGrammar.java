@@ -0,0 +1,157 @@
+package grammartools.dcg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Grammar that profiles the queries of another grammar, for finding the rules of a grammar file that are
+ * never used and the tag sequences that are costly to check. Every query is timed; for a grammar compiled
+ * to a {@link ChartGrammar}, the invocations, successes and chart items of each rule are counted as well.
+ * A chart parser works on all rules at once, so the items of a rule, not its time, are its share of the cost.
+ * <p>
+ * The verdict cache and screen of the grammar are bypassed, so every query reaches the grammar. Thread-safe.
+ */
+public class ProfiledGrammar
+        implements Grammar
+{
+    /**
+     * @param grammar   the grammar to profile
+     */
+    public ProfiledGrammar( Grammar grammar )
+    {
+        if( grammar instanceof TwoStageGrammar )
+            grammar = ((TwoStageGrammar)grammar).getGrammar();
+        if( grammar instanceof CachedGrammar )
+            grammar = ((CachedGrammar)grammar).getGrammar();
+
+        this.grammar = grammar;
+        this.chart = grammar instanceof ChartGrammar ? (ChartGrammar)grammar : null;
+        this.rules = chart != null ? chart.getRules() : new String[0];
+        this.counts = new ChartGrammar.Counts( rules.length );
+    }
+
+    public Boolean isParsable( String phrase, String[] tags )
+    {
+        final ChartGrammar.Counts queryCounts = chart != null ? new ChartGrammar.Counts( rules.length ) : null;
+        final long start = System.nanoTime();
+        final Boolean verdict = chart != null ? chart.isParsable( phrase, tags, queryCounts ) : grammar.isParsable( phrase, tags );
+        add( new Query( PrologGrammar.toGoal( phrase, tags ), verdict, System.nanoTime() - start ), queryCounts );
+        return verdict;
+    }
+
+    public String getFile()
+    {
+        return grammar.getFile();
+    }
+
+    /**
+     * @return the profile so far: the counts of each rule in file order, then the costliest tag sequences
+     */
+    public synchronized String getReport()
+    {
+        final StringBuilder report = new StringBuilder( toString() ).append( "\n\n" );
+
+        if( chart == null )
+        {
+            report.append( "(rule counts are only kept for grammars compiled to a chart parser)\n" );
+        }
+        else
+        {
+            long allItems = 0;
+            for( long n : counts.items )
+                allItems += n;
+
+            int unused = 0;
+            report.append( String.format( "%10s %10s %10s %12s %7s  %s%n", "invoked", "succeeded", "failed", "items", "items%", "rule" ) );
+            for( int r = 0; r < rules.length; r++ )
+            {
+                final long invoked = counts.invoked[r], succeeded = counts.succeeded[r], items = counts.items[r];
+                if( succeeded == 0 )
+                    unused++;
+                report.append( String.format( "%10d %10d %10d %12d %7.2f  %s%s%n", invoked, succeeded, invoked - succeeded, items,
+                                              allItems > 0 ? 100.0 * items / allItems : 0.0, rules[r], succeeded == 0 ? "   <unused>" : "" ) );
+            }
+            report.append( unused ).append( " of " ).append( rules.length ).append( " rules never succeeded\n" );
+        }
+
+        report.append( "\ncostliest tag sequences:\n" );
+        report.append( String.format( "%10s %8s  %s%n", "ms", "verdict", "goal" ) );
+        for( Query q : costliest )
+        {
+            report.append( String.format( "%10.3f %8s  %s%n", q.nanos / 1e6,
+                                          q.verdict == null ? "unknown" : q.verdict.toString(), q.goal ) );
+        }
+        return report.toString();
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "DCG profile: " + queries + " queries (" + unknown + " unknown), "
+                + String.format( "%.1f ms, %.3f ms per query", nanos / 1e6, queries > 0 ? nanos / 1e6 / queries : 0.0 );
+    }
+
+    private synchronized void add( Query query, ChartGrammar.Counts queryCounts )
+    {
+        queries++;
+        nanos += query.nanos;
+        if( query.verdict == null )
+            unknown++;
+
+        if( queryCounts != null )
+        {
+            for( int r = 0; r < rules.length; r++ )
+            {
+                counts.invoked[r] += queryCounts.invoked[r];
+                counts.succeeded[r] += queryCounts.succeeded[r];
+                counts.items[r] += queryCounts.items[r];
+            }
+        }
+
+        // keep the costliest distinct goals, costliest first
+        for( int i = 0; i < costliest.size(); i++ )
+        {
+            if( costliest.get( i ).goal.equals( query.goal ) )
+            {
+                if( costliest.get( i ).nanos >= query.nanos )
+                    return;
+                costliest.remove( i );
+                break;
+            }
+        }
+        int i = costliest.size();
+        while( i > 0 && costliest.get( i - 1 ).nanos < query.nanos )
+            i--;
+        if( i < MAX_COSTLIEST )
+        {
+            costliest.add( i, query );
+            if( costliest.size() > MAX_COSTLIEST )
+                costliest.remove( MAX_COSTLIEST );
+        }
+    }
+
+    private static final class Query
+    {
+        Query( String goal, Boolean verdict, long nanos )
+        {
+            this.goal = goal;
+            this.verdict = verdict;
+            this.nanos = nanos;
+        }
+
+        final String goal;
+        final Boolean verdict;
+        final long nanos;
+    }
+
+    private static final int MAX_COSTLIEST = 20;
+
+    private final Grammar grammar;
+    private final ChartGrammar chart;           // the grammar, if it is compiled to a chart parser
+    private final String[] rules;
+    private final ChartGrammar.Counts counts;   // guarded by this
+    private final List<Query> costliest = new ArrayList<Query>();   // guarded by this
+    private long queries;                       // guarded by this
+    private long unknown;                       // guarded by this
+    private long nanos;                         // guarded by this
+}
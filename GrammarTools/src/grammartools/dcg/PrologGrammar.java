@@ -0,0 +1,252 @@
+package grammartools.dcg;
+
+import alice.tuprolog.InvalidLibraryException;
+import alice.tuprolog.InvalidTheoryException;
+import alice.tuprolog.MalformedGoalException;
+import alice.tuprolog.Prolog;
+import alice.tuprolog.SolveInfo;
+import alice.tuprolog.Theory;
+import alice.tuprolog.lib.DCGLibrary;
+import grammartools.util.Deadline;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Grammar that solves DCG queries with the tuProlog interpreter.
+ * Prolog engines are not thread-safe, so each query borrows an engine from a pool, which grows to the number
+ * of queries solved at the same time. The theory is read once and loaded into each new engine,
+ * and an engine is replaced by a fresh one after a number of queries, so its state does not grow without bound.
+ * <p>
+ * tuProlog has no limit on the inferences of a query, so a query is instead given a time budget,
+ * also bounded by the current thread's {@link Deadline}; a query that is still backtracking when its budget
+ * runs out is halted, and its verdict is unknown.
+ */
+public class PrologGrammar
+        implements Grammar
+{
+    /**
+     * @param grammarFile   location of the Prolog DCG grammar
+     */
+    public PrologGrammar( String grammarFile )
+            throws InvalidTheoryException, InvalidLibraryException, IOException
+    {
+        this( grammarFile, DEF_MAX_ENGINE_QUERIES, DEF_MAX_SOLVE_TIME );
+    }
+
+    /**
+     * @param grammarFile       location of the Prolog DCG grammar
+     * @param maxEngineQueries  number of queries an engine solves before it is replaced
+     * @param maxSolveTime      milliseconds a query may take before it is halted, 0 is infinite
+     */
+    public PrologGrammar( String grammarFile, int maxEngineQueries, long maxSolveTime )
+            throws InvalidTheoryException, InvalidLibraryException, IOException
+    {
+        final InputStream in = new FileInputStream( grammarFile );
+        try
+        {
+            theory = new Theory( in );
+        }
+        finally
+        {
+            in.close();
+        }
+        this.file = grammarFile;
+        this.maxEngineQueries = maxEngineQueries;
+        this.maxSolveTime = maxSolveTime;
+
+        // load the first engine now, so an invalid theory is reported here rather than by the first query
+        idle.add( new Engine( theory ) );
+    }
+
+    /**
+     * Creates a Prolog engine that understands DCG rules (-->), without a theory.
+     * @return the engine
+     */
+    static Prolog createEngine()
+            throws InvalidLibraryException
+    {
+        final Prolog engine = new Prolog();
+        engine.loadLibrary( new DCGLibrary() );
+        return engine;
+    }
+
+    /**
+     * Builds the Prolog goal that checks a sequence of tags against a phrase.
+     * @param phrase    the phrase (non-terminal) to parse
+     * @param tags      the POS tags to parse
+     * @return          the goal, e.g. <code>phrase(s, [prp,vbz,'.']).</code>
+     */
+    public static String toGoal( String phrase, String[] tags )
+    {
+        final StringBuilder goal = new StringBuilder( "phrase(" );
+        goal.append( phrase.toLowerCase() ).append( ", [" );
+        for( int i = 0; i < tags.length; ++i )
+        {
+            String t = tags[i].toLowerCase();
+            if( !t.matches( "[a-z]\\w*" ) )
+                t = "'" + t.replaceAll( "'", "''" ) + "'";
+
+            goal.append( t ).append( i < tags.length - 1 ?  "," : "" );
+        }
+        return goal.append( "])." ).toString();
+    }
+
+    public Boolean isParsable( String phrase, String[] tags )
+    {
+        final String goal = toGoal( phrase, tags );
+        final long budget = Math.min( maxSolveTime > 0 ? maxSolveTime : Long.MAX_VALUE, Deadline.remaining() );
+        final Engine engine = borrow();
+        try
+        {
+            if( budget < Long.MAX_VALUE )
+                Watchdog.watch( engine, System.currentTimeMillis() + budget );
+            final SolveInfo result = engine.prolog.solve( goal );
+            return result.isHalted() ? null : Boolean.valueOf( result.isSuccess() );
+        }
+        catch( MalformedGoalException e )
+        {
+            // e.g. a phrase label that is not an atom
+            throw new IllegalArgumentException( e );
+        }
+        finally
+        {
+            Watchdog.unwatch( engine );
+            giveBack( engine );
+        }
+    }
+
+    public String getFile()
+    {
+        return file;
+    }
+
+    private Engine borrow()
+    {
+        synchronized( idle )
+        {
+            if( !idle.isEmpty() )
+                return idle.removeFirst();
+        }
+        try
+        {
+            return new Engine( theory );
+        }
+        catch( InvalidTheoryException e )
+        {
+            // the same theory was loaded by the first engine
+            throw new IllegalStateException( e );
+        }
+        catch( InvalidLibraryException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private void giveBack( Engine engine )
+    {
+        // engines that have solved enough queries are dropped, and replaced when next needed
+        if( ++engine.queries >= maxEngineQueries )
+            return;
+        synchronized( idle )
+        {
+            idle.addFirst( engine );
+        }
+    }
+
+    /**
+     * A Prolog engine with the grammar loaded, and the number of queries it has solved.
+     */
+    private static final class Engine
+    {
+        Engine( Theory theory )
+                throws InvalidTheoryException, InvalidLibraryException
+        {
+            prolog = createEngine();
+            prolog.setTheory( theory );
+        }
+
+        final Prolog prolog;
+        int queries;
+        long haltAt;    // time at which the query being solved is halted, 0 if none; guarded by the engine
+    }
+
+    /**
+     * Halts the queries that run past their budget, from a daemon thread shared by all grammars.
+     */
+    private static final class Watchdog
+            implements Runnable
+    {
+        static void watch( Engine engine, long haltAt )
+        {
+            synchronized( engine )
+            {
+                engine.haltAt = haltAt;
+            }
+            WATCHED.add( engine );
+            synchronized( Watchdog.class )
+            {
+                if( thread == null )
+                {
+                    thread = new Thread( new Watchdog(), "DCG query watchdog" );
+                    thread.setDaemon( true );
+                    thread.start();
+                }
+            }
+        }
+
+        static void unwatch( Engine engine )
+        {
+            // once this returns, the watchdog can no longer halt the engine's next query
+            synchronized( engine )
+            {
+                engine.haltAt = 0;
+            }
+            WATCHED.remove( engine );
+        }
+
+        public void run()
+        {
+            while( true )
+            {
+                final long now = System.currentTimeMillis();
+                for( Engine engine : WATCHED )
+                {
+                    synchronized( engine )
+                    {
+                        if( engine.haltAt > 0 && now >= engine.haltAt )
+                        {
+                            engine.haltAt = 0;
+                            engine.prolog.solveHalt();
+                        }
+                    }
+                }
+                try
+                {
+                    Thread.sleep( WATCHDOG_INTERVAL );
+                }
+                catch( InterruptedException e )
+                {
+                    return;
+                }
+            }
+        }
+
+        private static final Set<Engine> WATCHED = Collections.newSetFromMap( new ConcurrentHashMap<Engine, Boolean>() );
+        private static Thread thread;
+    }
+
+    private final Theory theory;
+    private final String file;
+    private final int maxEngineQueries;
+    private final long maxSolveTime;
+    private final LinkedList<Engine> idle = new LinkedList<Engine>();  // most recently used first
+
+    private static final int DEF_MAX_ENGINE_QUERIES = 100000;
+    private static final long DEF_MAX_SOLVE_TIME = 5000;
+    private static final long WATCHDOG_INTERVAL = 20;
+}
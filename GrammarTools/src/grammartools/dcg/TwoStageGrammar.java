@@ -0,0 +1,59 @@
+package grammartools.dcg;
+
+/**
+ * Grammar checked in two stages: a cheaper grammar that accepts at least the phrases of the grammar
+ * (e.g. grammar.unconstrained.pl for grammar.pl, which drops its tense and number constraints) screens the tags first,
+ * and the grammar itself is only queried when the screen accepts them. Most ungrammatical input is thereby
+ * rejected by the cheaper grammar alone.
+ */
+public class TwoStageGrammar
+        implements Grammar
+{
+    /**
+     * @param screen    grammar accepting a superset of the phrases of the grammar
+     * @param grammar   the grammar
+     */
+    public TwoStageGrammar( Grammar screen, Grammar grammar )
+    {
+        this.screen = screen;
+        this.grammar = grammar;
+    }
+
+    public Boolean isParsable( String phrase, String[] tags )
+    {
+        // an unknown verdict from the screen proves nothing, so the grammar decides
+        if( Boolean.FALSE.equals( screen.isParsable( phrase, tags ) ) )
+            return Boolean.FALSE;
+        return grammar.isParsable( phrase, tags );
+    }
+
+    public String getFile()
+    {
+        return grammar.getFile();
+    }
+
+    /**
+     * @return the grammar screening the tags
+     */
+    public Grammar getScreen()
+    {
+        return screen;
+    }
+
+    /**
+     * @return the grammar queried for the tags the screen accepts
+     */
+    public Grammar getGrammar()
+    {
+        return grammar;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "screen: " + screen + "; grammar: " + grammar;
+    }
+
+    private final Grammar screen;
+    private final Grammar grammar;
+}
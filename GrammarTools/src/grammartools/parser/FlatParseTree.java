@@ -0,0 +1,323 @@
+package grammartools.parser;
+
+import grammartools.tagger.Tagging;
+import grammartools.util.PennTreebankTags;
+import java.util.Arrays;
+
+/**
+ * Compact, immutable parse tree held in flat arrays.
+ * Nodes are numbered in pre-order, with parent, first child and subtree end kept in parallel int arrays,
+ * labels as ids from {@link PennTreebankTags}, and terminals as offsets into a token array.
+ * A library tree converted with {@link #compact(ParseTree)} keeps none of the library's objects,
+ * so it is cheap to hold on to (e.g. for batches of processed sentences).
+ *
+ * @see ParseTree
+ */
+public class FlatParseTree implements ParseTree
+{
+    private FlatParseTree( Nodes nodes, int node ) {
+        this.nodes = nodes;
+        this.node = node;
+    }
+    /**
+     * Converts a tree into a compact tree.
+     * @param tree the tree to convert
+     * @return the compact tree, or the tree itself if it already is one
+     */
+    public static FlatParseTree compact( ParseTree tree ) {
+        if( tree instanceof FlatParseTree ) {
+            return (FlatParseTree)tree;
+        }
+        final double tagSeqProb = tree instanceof OpenNLPParseTree ?
+                ((OpenNLPParseTree)tree).getTagSeqProb() : Double.NaN;
+        return new FlatParseTree( new Nodes( tree.cursor(), tree.getDesc(), tagSeqProb ), 0 );
+    }
+    public static FlatParseTree[] compact( ParseTree[] trees ) {
+        FlatParseTree[] ftrees = new FlatParseTree[trees.length];
+        for( int i = 0; i < ftrees.length; i++ ) {
+            ftrees[i] = trees[i] == null ? null : compact( trees[i] );
+        }
+        return ftrees;
+    }
+    @Override
+    public FlatParseTree clone() {
+        // immutable
+        return this;
+    }
+    public String getDesc() {
+        return nodes.desc;
+    }
+    public double getProb() {
+        return nodes.probs[node];
+    }
+    /**
+     * Gets the probability associated with the POS tag sequence for this parse, if the parser provided one.
+     * @return The probability associated with the tag sequence of this parse, or NaN.
+     */
+    public double getTagSeqProb() {
+        return nodes.tagSeqProb;
+    }
+    public String getValue() {
+        return nodes.getValue( node );
+    }
+    public String[] getPosTags() {
+        final int[] pos = getPosNodes();
+        String[] tags = new String[pos.length];
+        for( int i = 0; i < tags.length; ++i ) {
+            tags[i] = nodes.getValue( pos[i] );
+        }
+        return tags;
+    }
+    public Tagging getPosTagging() {
+        final int[] pos = getPosNodes();
+        String[] tokens= new String[pos.length];
+        String[] tags  = new String[pos.length];
+        double[] probs = new double[pos.length];
+        for( int i = 0; i < tags.length; ++i ) {
+            tokens[i] = nodes.getValue( pos[i] + 1 );
+            tags  [i] = nodes.getValue( pos[i] );
+            probs [i] = nodes.probs[pos[i]];
+        }
+        return new Tagging(tokens, tags, probs, nodes.desc);
+    }
+    private int[] getPosNodes() {
+        // pre-terminals within this subtree, which are numbered from node to its end
+        final int[] pos = nodes.posNodes;
+        int from = Arrays.binarySearch( pos, node );
+        int to = Arrays.binarySearch( pos, nodes.ends[node] );
+        from = from < 0 ? -from - 1 : from;
+        to = to < 0 ? -to - 1 : to;
+        return from == 0 && to == pos.length ? pos : Arrays.copyOfRange( pos, from, to );
+    }
+    public FlatParseTree[] getChildren() {
+        FlatParseTree[] children = new FlatParseTree[getNumChildren()];
+        for( int i = 0, c = nodes.firstChildren[node]; i < children.length; i++, c = nodes.nextSibling( c ) ) {
+            children[i] = new FlatParseTree( nodes, c );
+        }
+        return children;
+    }
+    public int getNumChildren() {
+        int n = 0;
+        for( int c = nodes.firstChildren[node]; c >= 0; c = nodes.nextSibling( c ) ) {
+            n++;
+        }
+        return n;
+    }
+    public FlatParseTree getParent() {
+        final int parent = nodes.parents[node];
+        return parent < 0 ? null : new FlatParseTree( nodes, parent );
+    }
+    public ParseTreeCursor cursor() {
+        return new Cursor( nodes, node );
+    }
+    public boolean isRoot() {
+        return nodes.isRoot( node );
+    }
+    public boolean isClausal() {
+        return cursor().isClausal();
+    }
+    public boolean isPosTag() {
+        return nodes.isPosTag( node );
+    }
+    public boolean isTerminal() {
+        return nodes.isTerminal( node );
+    }
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder( (nodes.ends[node] - node) * 8 );
+        toString( sb, node );
+        return sb.toString();
+    }
+    private void toString( StringBuilder sb, int n ) {
+        if( nodes.isTerminal( n ) ) {
+            sb.append( nodes.getValue( n ) );
+            return;
+        }
+        sb.append( '(' ).append( nodes.getValue( n ) );
+        for( int c = nodes.firstChildren[n]; c >= 0; c = nodes.nextSibling( c ) ) {
+            sb.append( ' ' );
+            toString( sb, c );
+        }
+        sb.append( ')' );
+    }
+    public FlatParseTree valueOf( String strTree )
+        throws java.io.IOException {
+        edu.stanford.nlp.trees.Tree t = edu.stanford.nlp.trees.Tree.valueOf( strTree );
+        if( t == null ) {
+            throw new java.io.IOException( "Invalid tree: " + strTree );
+        }
+        return new FlatParseTree( new Nodes( new StanfordParseTree( t, t.score() ).cursor(), nodes.desc, Double.NaN ), 0 );
+    }
+
+    /**
+     * The arrays of a whole tree, shared by the views of its nodes.
+     */
+    private static final class Nodes
+    {
+        Nodes( ParseTreeCursor c, String desc, double tagSeqProb )
+        {
+            int capacity = 64;
+            int[] labels = new int[capacity], parents = new int[capacity], firstChildren = new int[capacity];
+            double[] probs = new double[capacity];
+            int[] path = new int[32];
+            int[] posNodes = new int[16];
+            String[] tokens = new String[16];
+            int n = 0, nPos = 0, nTokens = 0, root = -1;
+
+            // number the nodes in pre-order
+            do
+            {
+                if( n == capacity )
+                {
+                    capacity *= 2;
+                    labels = Arrays.copyOf( labels, capacity );
+                    parents = Arrays.copyOf( parents, capacity );
+                    firstChildren = Arrays.copyOf( firstChildren, capacity );
+                    probs = Arrays.copyOf( probs, capacity );
+                }
+                final int depth = c.getDepth();
+                if( depth == path.length )
+                    path = Arrays.copyOf( path, path.length * 2 );
+                path[depth] = n;
+
+                parents[n] = depth == 0 ? -1 : path[depth - 1];
+                firstChildren[n] = c.getNumChildren() > 0 ? n + 1 : -1;
+                probs[n] = c.getProb();
+                if( c.isTerminal() )
+                {
+                    if( nTokens == tokens.length )
+                        tokens = Arrays.copyOf( tokens, nTokens * 2 );
+                    tokens[nTokens] = c.getValue();
+                    labels[n] = nTokens++;
+                }
+                else
+                {
+                    labels[n] = PennTreebankTags.getId( c.getValue() );
+                    if( root < 0 && c.isRoot() )
+                        root = labels[n];
+                    if( c.isPosTag() )
+                    {
+                        if( nPos == posNodes.length )
+                            posNodes = Arrays.copyOf( posNodes, nPos * 2 );
+                        posNodes[nPos++] = n;
+                    }
+                }
+                n++;
+            }
+            while( c.toNext( 0 ) );
+
+            // a subtree ends where the last of its descendants does
+            final int[] ends = new int[n];
+            for( int i = n - 1; i >= 0; i-- )
+            {
+                ends[i] = Math.max( ends[i], i + 1 );
+                if( parents[i] >= 0 )
+                    ends[parents[i]] = Math.max( ends[parents[i]], ends[i] );
+            }
+
+            this.desc = desc;
+            this.tagSeqProb = tagSeqProb;
+            this.root = root;
+            this.labels = Arrays.copyOf( labels, n );
+            this.parents = Arrays.copyOf( parents, n );
+            this.firstChildren = Arrays.copyOf( firstChildren, n );
+            this.ends = ends;
+            this.probs = Arrays.copyOf( probs, n );
+            this.posNodes = Arrays.copyOf( posNodes, nPos );
+            this.tokens = Arrays.copyOf( tokens, nTokens );
+        }
+
+        int nextSibling( int n ) {
+            final int parent = parents[n];
+            return parent >= 0 && ends[n] < ends[parent] ? ends[n] : -1;
+        }
+        boolean isTerminal( int n ) {
+            return firstChildren[n] < 0;
+        }
+        boolean isRoot( int n ) {
+            return !isTerminal( n ) && labels[n] == root;
+        }
+        boolean isPosTag( int n ) {
+            return Arrays.binarySearch( posNodes, n ) >= 0;
+        }
+        String getValue( int n ) {
+            return isTerminal( n ) ? tokens[labels[n]] : PennTreebankTags.getLabel( labels[n] );
+        }
+
+        final String    desc;
+        final double    tagSeqProb;
+        final int       root;           // label id of the root label, or -1
+        final int[]     labels;         // label id, or for terminals, offset into tokens
+        final int[]     parents;        // parent node, or -1
+        final int[]     firstChildren;  // first child node, or -1 for terminals
+        final int[]     ends;           // node after the last node of the subtree
+        final double[]  probs;
+        final int[]     posNodes;       // pre-terminal nodes, in order
+        final String[]  tokens;
+    }
+
+    private static class Cursor extends ParseTreeCursor
+    {
+        Cursor( Nodes nodes, int node ) {
+            this.nodes = nodes;
+            this.node = node;
+        }
+        public String getValue() {
+            return nodes.getValue( node );
+        }
+        public double getProb() {
+            return nodes.probs[node];
+        }
+        public int getNumChildren() {
+            int n = 0;
+            for( int c = nodes.firstChildren[node]; c >= 0; c = nodes.nextSibling( c ) ) {
+                n++;
+            }
+            return n;
+        }
+        @Override
+        public boolean isTerminal() {
+            return nodes.isTerminal( node );
+        }
+        public boolean isRoot() {
+            return nodes.isRoot( node );
+        }
+        public boolean isPosTag() {
+            return nodes.isPosTag( node );
+        }
+        public FlatParseTree getTree() {
+            return new FlatParseTree( nodes, node );
+        }
+        public boolean toFirstChild() {
+            if( nodes.isTerminal( node ) )
+                return false;
+            node = nodes.firstChildren[node];
+            depth++;
+            return true;
+        }
+        public boolean toNextSibling() {
+            final int next = depth == 0 ? -1 : nodes.nextSibling( node );
+            if( next < 0 )
+                return false;
+            node = next;
+            return true;
+        }
+        public boolean toParent() {
+            if( depth == 0 )
+                return false;
+            node = nodes.parents[node];
+            depth--;
+            return true;
+        }
+        public int getDepth() {
+            return depth;
+        }
+
+        private final Nodes nodes;
+        private int node;
+        private int depth = 0;
+    }
+
+    private final Nodes nodes;
+    private final int node;
+}
@@ -0,0 +1,84 @@
+package grammartools.parser;
+
+import java.util.Arrays;
+
+/**
+ * Cursor over a library tree whose nodes expose their children as an array.
+ * Keeps the path from the starting node in reusable stacks, so moving does not allocate
+ * beyond what the library needs to hand out a node's children.
+ *
+ * @param <T> the library node type
+ */
+abstract class NodeCursor<T> extends ParseTreeCursor
+{
+    NodeCursor( T start ) {
+        this.nodes[0] = start;
+    }
+
+    /**
+     * Gets the children of a library node.
+     * @param node the library node
+     * @return the children of the node
+     */
+    protected abstract T[] getChildren( T node );
+
+    /**
+     * Gets the library node the cursor is at.
+     * @return the current library node
+     */
+    @SuppressWarnings("unchecked")
+    protected T getNode() {
+        return (T)nodes[depth];
+    }
+
+    public boolean toFirstChild()
+    {
+        final T[] children = getChildren( getNode() );
+        if( children.length == 0 )
+            return false;
+
+        if( depth + 1 == nodes.length )
+        {
+            nodes = Arrays.copyOf( nodes, nodes.length * 2 );
+            siblings = Arrays.copyOf( siblings, siblings.length * 2 );
+            indexes = Arrays.copyOf( indexes, indexes.length * 2 );
+        }
+
+        depth++;
+        nodes[depth] = children[0];
+        siblings[depth] = children;
+        indexes[depth] = 0;
+        return true;
+    }
+
+    public boolean toNextSibling()
+    {
+        if( depth == 0 || indexes[depth] + 1 >= siblings[depth].length )
+            return false;
+
+        nodes[depth] = siblings[depth][++indexes[depth]];
+        return true;
+    }
+
+    public boolean toParent()
+    {
+        if( depth == 0 )
+            return false;
+
+        nodes[depth] = null;
+        siblings[depth] = null;
+        depth--;
+        return true;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    private Object[]    nodes       = new Object[INITIAL_DEPTH];    // node at each depth
+    private Object[][]  siblings    = new Object[INITIAL_DEPTH][];  // children of the parent of the node at each depth
+    private int[]       indexes     = new int[INITIAL_DEPTH];       // index of the node at each depth among its siblings
+    private int         depth       = 0;
+
+    private static final int INITIAL_DEPTH = 32;
+}
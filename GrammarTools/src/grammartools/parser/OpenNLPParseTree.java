@@ -1,9 +1,12 @@
 package grammartools.parser;
 
 import grammartools.tagger.Tagging;
+import grammartools.util.PennTreebankTags;
 
 /**
  * Wrapper class for OpenNLP's Parse tree
+ * Derived views (POS tags, tag sequence probability, clausality) are computed once and cached,
+ * so the wrapped parse must not be modified after it is wrapped.
  * 
  * @author Anthony Penniston
  * @see ParseTree
@@ -35,21 +38,32 @@ public class OpenNLPParseTree implements ParseTree
      * @return The probability associated with the tag sequence of this parse.
      */
     public double getTagSeqProb() {
-        return parse.getTagSequenceProb();
+        Double p = tagSeqProb;
+        if( p == null ) {
+            tagSeqProb = p = parse.getTagSequenceProb();
+        }
+        return p;
     }
     public String getValue() {
         return parse.getChildCount() > 0 ?
             parse.getType() : parse.getHead().toString();
     }
     public String[] getPosTags() {
-        opennlp.tools.parser.Parse[] tagNodes = parse.getTagNodes();
-        String[] tags = new String[tagNodes.length];
-        for( int i = 0; i < tags.length; ++i ) {
-            tags[i] = tagNodes[i].getType();
-        }
-        return tags;
+        return getPosTagging().tags.clone();
     }
+    /**
+     * Gets the POS tagging of this parse: the tokens, tags and tag probabilities of its tag nodes.
+     * The tagging is shared between calls and must not be modified.
+     * @return The POS tagging of this parse.
+     */
     public Tagging getPosTagging() {
+        Tagging t = posTagging;
+        if( t == null ) {
+            posTagging = t = createPosTagging();
+        }
+        return t;
+    }
+    private Tagging createPosTagging() {
         opennlp.tools.parser.Parse[] tagNodes = parse.getTagNodes();
         String[] tokens= new String[tagNodes.length];
         String[] tags  = new String[tagNodes.length];
@@ -71,26 +85,35 @@ public class OpenNLPParseTree implements ParseTree
     public OpenNLPParseTree getParent() {
         return new OpenNLPParseTree( parse.getParent() );
     }
+    public ParseTreeCursor cursor() {
+        return new Cursor( parse );
+    }
     public boolean isRoot() {
         return parse.getType().equals( ROOT );
     }
     public boolean isClausal() 
+    {
+        Boolean b = clausal;
+        if( b == null ) {
+            clausal = b = computeClausal();
+        }
+        return b;
+    }
+    private boolean computeClausal()
     {
         if(isRoot())
         {
             for( opennlp.tools.parser.Parse p : parse.getChildren() ) 
             {
                 String type = p.getType();
-                for( String clause : CLAUSES )
-                    if( type.equals( clause ) )
-                        return true;
+                if( PennTreebankTags.isClause( type ) )
+                    return true;
             }
         }
         else
         {
-            for( String clause : CLAUSES )
-                if( getValue().equals( clause ) )
-                    return true;
+            if( PennTreebankTags.isClause( getValue() ) )
+                return true;
         }
         return false;
     }
@@ -121,4 +144,42 @@ public class OpenNLPParseTree implements ParseTree
             new String[]{ "S", "SBAR" , "SBARQ", "SINV", "SQ" };
 
     private final opennlp.tools.parser.Parse parse;
+    // derived views, computed on first use; racing threads compute equal values, and volatile publishes them safely
+    private volatile Tagging posTagging;
+    private volatile Double tagSeqProb;
+    private volatile Boolean clausal;
+
+    private static class Cursor extends NodeCursor<opennlp.tools.parser.Parse>
+    {
+        Cursor( opennlp.tools.parser.Parse start ) {
+            super( start );
+        }
+        @Override
+        protected opennlp.tools.parser.Parse[] getChildren( opennlp.tools.parser.Parse node ) {
+            // Parse only hands out a copy of its children, so this is the one allocation per node entered
+            return node.getChildCount() > 0 ? node.getChildren() : NO_CHILDREN;
+        }
+        public String getValue() {
+            final opennlp.tools.parser.Parse node = getNode();
+            return node.getChildCount() > 0 ?
+                node.getType() : node.getHead().toString();
+        }
+        public double getProb() {
+            return getNode().getProb();
+        }
+        public int getNumChildren() {
+            return getNode().getChildCount();
+        }
+        public boolean isRoot() {
+            return getNode().getType().equals( ROOT );
+        }
+        public boolean isPosTag() {
+            return getNode().isPosTag();
+        }
+        public OpenNLPParseTree getTree() {
+            return new OpenNLPParseTree( getNode() );
+        }
+
+        private static final opennlp.tools.parser.Parse[] NO_CHILDREN = new opennlp.tools.parser.Parse[0];
+    }
 }
\ No newline at end of file
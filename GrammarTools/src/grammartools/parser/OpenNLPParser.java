@@ -1,28 +1,79 @@
 package grammartools.parser;
 
+import grammartools.util.Deadline;
 import opennlp.tools.parser.AbstractBottomUpParser;
 import opennlp.tools.parser.Parse;
-import opennlp.tools.parser.ParserFactory;
 import opennlp.tools.parser.ParserModel;
+import opennlp.tools.parser.ParserType;
 import opennlp.tools.util.Span;
 
+/**
+ * Parser based on OpenNLP.
+ * The model is shared, each thread parses with its own parser so the parser can be used concurrently.
+ */
 public class OpenNLPParser
         implements Parser 
 {
     public OpenNLPParser( String modelFile )
             throws java.io.IOException
     {
-        java.io.InputStream in = new java.io.FileInputStream(modelFile);
-        parser = ParserFactory.create( new ParserModel(in) );
-        in.close();
+        this( loadModel(modelFile), AbstractBottomUpParser.defaultBeamSize, AbstractBottomUpParser.defaultAdvancePercentage );
     }
 
     public OpenNLPParser( String modelFile, int beamSize, double advancePercentage ) 
             throws java.io.IOException 
     {    
+        this( loadModel(modelFile), beamSize, advancePercentage );
+    }
+    
+    private OpenNLPParser( final ParserModel model, final int beamSize, final double advancePercentage )
+    {
+        parser = new ThreadLocal<opennlp.tools.parser.Parser>()
+        {
+            @Override protected opennlp.tools.parser.Parser initialValue()
+            {
+                return createParser( model, beamSize, advancePercentage );
+            }
+        };
+    }
+    
+    private static ParserModel loadModel( String modelFile )
+            throws java.io.IOException
+    {
         java.io.InputStream in = new java.io.FileInputStream(modelFile);
-        parser = ParserFactory.create( new ParserModel(in), beamSize, advancePercentage );
-        in.close();
+        try { return new ParserModel(in); }
+        finally { in.close(); }
+    }
+    
+    /**
+     * Creates the parser for the model type, checking the current thread's time budget
+     * before every round of the beam search so that an abandoned parse stops promptly.
+     * @throws Deadline.ExceededException from parse() if the budget is exceeded
+     */
+    private static opennlp.tools.parser.Parser createParser( ParserModel model, int beamSize, double advancePercentage )
+    {
+        if( model.getParserType() == ParserType.TREEINSERT )
+        {
+            return new opennlp.tools.parser.treeinsert.Parser( model, beamSize, advancePercentage )
+            {
+                @Override
+                protected Parse[] advanceParses( Parse p, double probMass )
+                {
+                    Deadline.check();
+                    return super.advanceParses( p, probMass );
+                }
+            };
+        }
+        
+        return new opennlp.tools.parser.chunking.Parser( model, beamSize, advancePercentage )
+        {
+            @Override
+            protected Parse[] advanceParses( Parse p, double probMass )
+            {
+                Deadline.check();
+                return super.advanceParses( p, probMass );
+            }
+        };
     }
     
     /**
@@ -80,13 +131,13 @@ public class OpenNLPParser
     @Override
     public OpenNLPParseTree parse( String[] tokens )
     {
-        return new OpenNLPParseTree( parser.parse( createInitialParse(tokens) ) );
+        return new OpenNLPParseTree( parser.get().parse( createInitialParse(tokens) ) );
     }
 
     @Override
     public OpenNLPParseTree[] parse( String[] tokens, int nBest )
     {
-        Parse[] parses = parser.parse( createInitialParse(tokens), nBest );
+        Parse[] parses = parser.get().parse( createInitialParse(tokens), nBest );
         OpenNLPParseTree[] ptrees = new OpenNLPParseTree[ Math.min(parses.length, nBest) ];
         
         for( int i = 0; i < ptrees.length; i++ )
@@ -114,5 +165,5 @@ public class OpenNLPParser
         return p;
     }
 
-    private final opennlp.tools.parser.Parser parser;
+    private final ThreadLocal<opennlp.tools.parser.Parser> parser;
 }
@@ -47,6 +47,12 @@ public interface ParseTree
      * @return The parent node of this node.
      */
     ParseTree   getParent();
+    /**
+     * Creates a cursor for walking this tree in place, starting at this node.
+     * Prefer this over getChildren() and getParent() when walking a tree, as it does not wrap every node.
+     * @return A cursor at this node.
+     */
+    ParseTreeCursor cursor();
     /**
      * Determines if this tree is a root node.
      * @return Whether this node is root.
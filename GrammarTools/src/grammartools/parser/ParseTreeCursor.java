@@ -0,0 +1,147 @@
+package grammartools.parser;
+
+import grammartools.util.PennTreebankTags;
+
+/**
+ * Cursor for walking a parse tree in place, without creating a ParseTree wrapper for each node visited.
+ * The cursor starts at the node it was created for (depth 0) and cannot move above it.
+ * A cursor is not thread-safe; each thread walking a tree should create its own.
+ *
+ * @see ParseTree#cursor()
+ */
+public abstract class ParseTreeCursor
+{
+    /**
+     * Gets the node label or contents if it is a terminal
+     * @return The string label or value of the current node.
+     */
+    public abstract String      getValue();
+    /**
+     * Gets the probability associated with the current node.
+     * @return The node probability.
+     */
+    public abstract double      getProb();
+    /**
+     * Gets number of children for the current node.
+     * @return The number of children of the current node.
+     */
+    public abstract int         getNumChildren();
+    /**
+     * Determines if the current node is a root node.
+     * @return Whether the current node is root.
+     */
+    public abstract boolean     isRoot();
+    /**
+     * Determines if the current node is a part-of-speech node.
+     * @return Whether the current node is a POS tag.
+     */
+    public abstract boolean     isPosTag();
+    /**
+     * Gets a tree for the current node; unlike moving the cursor, this allocates.
+     * @return The tree rooted at the current node.
+     */
+    public abstract ParseTree   getTree();
+    /**
+     * Moves to the first child of the current node.
+     * @return Whether the cursor moved; it does not move if the node has no children.
+     */
+    public abstract boolean     toFirstChild();
+    /**
+     * Moves to the next sibling of the current node.
+     * @return Whether the cursor moved; it does not move from the last child or from the starting node.
+     */
+    public abstract boolean     toNextSibling();
+    /**
+     * Moves to the parent of the current node.
+     * @return Whether the cursor moved; it does not move from the starting node.
+     */
+    public abstract boolean     toParent();
+    /**
+     * Gets the depth of the current node below the starting node.
+     * @return The depth of the current node, 0 for the starting node.
+     */
+    public abstract int         getDepth();
+
+    /**
+     * Determines if the current node is a leaf.
+     * @return Whether the current node is terminal.
+     */
+    public boolean isTerminal() {
+        return getNumChildren() == 0;
+    }
+
+    /**
+     * Determines if the current node is a clause, or for a root node, contains a clause as child.
+     * @return Whether the current node is clausal.
+     */
+    public boolean isClausal()
+    {
+        if(!isRoot())
+            return PennTreebankTags.isClause(getValue());
+
+        boolean isClausal = false;
+        if(toFirstChild())
+        {
+            do
+            {
+                isClausal = PennTreebankTags.isClause(getValue());
+            }
+            while(!isClausal && toNextSibling());
+            toParent();
+        }
+        return isClausal;
+    }
+
+    /**
+     * Moves to the next node in depth-first pre-order, staying within the subtree of the ancestor at the given depth.
+     * @param base depth of the node whose subtree is walked
+     * @return Whether the cursor moved; when the subtree is exhausted, the cursor is left at its root.
+     */
+    public boolean toNext( int base ) {
+        return toFirstChild() || toNextSkippingChildren( base );
+    }
+
+    /**
+     * Moves to the next node in depth-first pre-order that is not a descendant of the current node,
+     * staying within the subtree of the ancestor at the given depth.
+     * @param base depth of the node whose subtree is walked
+     * @return Whether the cursor moved; when the subtree is exhausted, the cursor is left at its root.
+     */
+    public boolean toNextSkippingChildren( int base )
+    {
+        while(getDepth() > base)
+        {
+            if(toNextSibling())
+                return true;
+            toParent();
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the next node (from left to right) at the given depth,
+     * staying within the subtree of the ancestor at the given base depth.
+     * Starting from the base node, this moves to the first node at the given depth,
+     * so repeated calls visit one level of a breadth-first walk.
+     * @param depth depth of the nodes to visit
+     * @param base depth of the node whose subtree is walked
+     * @return Whether the cursor moved; when the level is exhausted, the cursor is left at the base node.
+     */
+    public boolean toNextAtDepth( int depth, int base )
+    {
+        boolean descend = getDepth() < depth;
+        while(true)
+        {
+            if(descend)
+            {
+                while(getDepth() < depth && toFirstChild());
+                if(getDepth() == depth)
+                    return true;
+            }
+
+            if(!toNextSkippingChildren( base ))
+                return false;
+            descend = true;
+        }
+    }
+}
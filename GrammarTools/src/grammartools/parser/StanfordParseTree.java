@@ -1,7 +1,11 @@
 package grammartools.parser;
 
+import grammartools.util.PennTreebankTags;
+
 /**
  * Wrapper class for Stanford's Tree tree
+ * Derived views (POS tags, clausality) are computed once and cached,
+ * so the wrapped tree must not be modified after it is wrapped.
  *
  * @author Anthony Penniston
  * @see ParseTree
@@ -44,6 +48,13 @@ public class StanfordParseTree
         return tree.value();
     }
     public String[] getPosTags() {
+        String[] tags = posTags;
+        if( tags == null ) {
+            posTags = tags = createPosTags();
+        }
+        return tags.clone();
+    }
+    private String[] createPosTags() {
         java.util.List<edu.stanford.nlp.ling.Label> labels = tree.preTerminalYield();
         String[] tags = new String[labels.size()];
         int i = 0;
@@ -62,26 +73,35 @@ public class StanfordParseTree
     public StanfordParseTree getParent() {
         return new StanfordParseTree( tree.parent(), tree.parent().score() );
     }
+    public ParseTreeCursor cursor() {
+        return new Cursor( tree, score );
+    }
     public boolean isRoot() {
         return tree.value().equals( ROOT );
     }
     public boolean isClausal() 
+    {
+        Boolean b = clausal;
+        if( b == null ) {
+            clausal = b = computeClausal();
+        }
+        return b;
+    }
+    private boolean computeClausal()
     {
         if(isRoot())
         {
             for( edu.stanford.nlp.trees.Tree t : tree.children() ) 
             {
                 String type = t.value();
-                for( String clause : CLAUSES )
-                    if( type.equals( clause ) )
-                        return true;
+                if( PennTreebankTags.isClause( type ) )
+                    return true;
             }
         }
         else
         {
-            for( String clause : CLAUSES )
-                if( getValue().equals( clause ) )
-                    return true;
+            if( PennTreebankTags.isClause( getValue() ) )
+                return true;
         }
         return false;
     }
@@ -116,4 +136,40 @@ public class StanfordParseTree
 
     private final edu.stanford.nlp.trees.Tree tree;
     private final double score;
+    // derived views, computed on first use; racing threads compute equal values, and volatile publishes them safely
+    private volatile String[] posTags;
+    private volatile Boolean clausal;
+
+    private static class Cursor extends NodeCursor<edu.stanford.nlp.trees.Tree>
+    {
+        Cursor( edu.stanford.nlp.trees.Tree start, double score ) {
+            super( start );
+            this.score = score;
+        }
+        @Override
+        protected edu.stanford.nlp.trees.Tree[] getChildren( edu.stanford.nlp.trees.Tree node ) {
+            return node.children();
+        }
+        public String getValue() {
+            return getNode().value();
+        }
+        public double getProb() {
+            // the parse score is kept by the wrapper, not the tree
+            return getDepth() == 0 ? score : getNode().score();
+        }
+        public int getNumChildren() {
+            return getNode().numChildren();
+        }
+        public boolean isRoot() {
+            return getNode().value().equals( ROOT );
+        }
+        public boolean isPosTag() {
+            return getNode().isPreTerminal();
+        }
+        public StanfordParseTree getTree() {
+            return new StanfordParseTree( getNode(), getProb() );
+        }
+
+        private final double score;
+    }
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import edu.stanford.nlp.trees.PennTreebankLanguagePack;
 import edu.stanford.nlp.trees.Tree;
 import edu.stanford.nlp.trees.TypedDependency;
 import edu.stanford.nlp.util.ScoredObject;
+import grammartools.util.Deadline;
 import java.io.IOException;
 import java.util.List;
 
@@ -24,12 +25,30 @@ public class StanfordParser
      */
     public StanfordParser( String modelFile ) 
     {
-        //Options op = new Options();
-        //op.setOptions("-maxLength", Integer.toString(maxSentenceLength));
+        this( modelFile, 0 );
+    }
+
+    /**
+     * @param modelFile         location of models
+     * @param maxSentenceLength sentences with more tokens than this are not parsed (0 for no limit)
+     */
+    public StanfordParser( String modelFile, int maxSentenceLength ) 
+    {
         //op.setOptions( "-retainTmpSubcategories" );
-        lexicalizedParser = LexicalizedParser.loadModel(modelFile);
+        lexicalizedParser = maxSentenceLength > 0 ?
+                LexicalizedParser.loadModel(modelFile, "-maxLength", Integer.toString(maxSentenceLength)) :
+                LexicalizedParser.loadModel(modelFile);
         gsf = new PennTreebankLanguagePack().grammaticalStructureFactory();
         this.nested = true;
+        this.maxSentenceLength = maxSentenceLength;
+    }
+    
+    /**
+     * @return the maximum number of tokens in a sentence that will be parsed, or 0 if there is no limit
+     */
+    public int getMaxSentenceLength()
+    {
+        return maxSentenceLength;
     }
 
     /**
@@ -81,13 +100,18 @@ public class StanfordParser
     @Override
     public StanfordParseTree[] parse( String[] tokens, int nBest )
     {
+        // the PCFG chart cannot be interrupted, so the time budget is checked around it 
+        // and the cost of a single call is bounded by the maximum sentence length
+        Deadline.check();
         LexicalizedParserQuery query = lexicalizedParser.parserQuery();
 
         List<ScoredObject<Tree>> trees = 
-            query.parse( Sentence.toWordList(tokens) ) ? 
+            (maxSentenceLength <= 0 || tokens.length <= maxSentenceLength) && query.parse( Sentence.toWordList(tokens) ) ? 
                 query.getKBestPCFGParses( nBest ) : new java.util.LinkedList<ScoredObject<Tree>>();
         
-        StanfordParseTree[] ptrees = new StanfordParseTree[ Math.max(trees.size(), nBest) ];
+        Deadline.check();
+        
+        StanfordParseTree[] ptrees = new StanfordParseTree[ Math.min(trees.size(), nBest) ];
         int i = 0;
         for( ScoredObject<Tree> so : trees )
         {
@@ -113,4 +137,5 @@ public class StanfordParser
     private final LexicalizedParser lexicalizedParser;
     private final GrammaticalStructureFactory gsf;
     private final boolean nested;
+    private final int maxSentenceLength;
 }
@@ -0,0 +1,106 @@
+package grammartools.tagger;
+
+import grammartools.util.PennTreebankTags;
+
+/**
+ * Represents a tagged sentence compactly, for short-lived taggings.
+ * Unlike Tagging, the token and probability arrays are shared rather than copied,
+ * and tags are held as ids from {@link PennTreebankTags}.
+ * The arrays passed in must not be modified afterwards.
+ */
+public class CompactTagging
+{
+    public CompactTagging( String[] tokens, short[] tagIds, double[] probs, String desc )
+    {
+        this.tokens = tokens;
+        this.tagIds = tagIds;
+        this.probs  = probs;
+        this.desc   = desc;
+    }
+
+    /**
+     * Creates a compact tagging from string tags, e.g. as returned by a tagging library.
+     * @param tokens    the tokens, shared
+     * @param tags      the tags, converted to ids
+     * @param probs     the tag probabilities, shared, or null
+     * @param desc      description of the tagger
+     * @return          the compact tagging
+     */
+    public static CompactTagging valueOf( String[] tokens, String[] tags, double[] probs, String desc )
+    {
+        final short[] tagIds = new short[tags.length];
+        for( int i = 0; i < tags.length; i++ )
+        {
+            final int id = PennTreebankTags.getId( tags[i] );
+            if( id > Short.MAX_VALUE )
+                throw new IllegalStateException( "Too many distinct tags" );
+            tagIds[i] = (short)id;
+        }
+        return new CompactTagging( tokens, tagIds, probs, desc );
+    }
+
+    public int size()
+    {
+        return tagIds.length;
+    }
+
+    public String getToken( int i )
+    {
+        return tokens[i];
+    }
+
+    public int getTagId( int i )
+    {
+        return tagIds[i];
+    }
+
+    public String getTag( int i )
+    {
+        return PennTreebankTags.getLabel( tagIds[i] );
+    }
+
+    public double getProb( int i )
+    {
+        return probs[i];
+    }
+
+    public boolean hasProbs()
+    {
+        return probs != null;
+    }
+
+    public String getDesc()
+    {
+        return desc;
+    }
+
+    /**
+     * Converts to a Tagging, for code that works with string tags.
+     * @return the equivalent Tagging
+     */
+    public Tagging toTagging()
+    {
+        final String[] tags = new String[tagIds.length];
+        for( int i = 0; i < tags.length; i++ )
+            tags[i] = getTag( i );
+        return new Tagging( tokens, tags, probs, desc );
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder s = new StringBuilder();
+        for( int i = 0; i < tagIds.length; i++ )
+        {
+            if( i > 0 )
+                s.append( ' ' );
+            s.append( tokens[i] ).append( '/' ).append( getTag( i ) );
+        }
+        return s.toString();
+    }
+
+    private final String[] tokens;
+    private final short[] tagIds;
+    private final double[] probs;
+    private final String desc;
+}
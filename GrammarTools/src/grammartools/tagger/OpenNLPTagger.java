@@ -1,21 +1,59 @@
 package grammartools.tagger;
 
+import java.util.Arrays;
+import java.util.List;
+import opennlp.tools.util.BeamSearch;
+import opennlp.tools.util.BeamSearchContextGenerator;
+import opennlp.tools.util.Sequence;
+import opennlp.tools.util.SequenceValidator;
+
 /**
- * Tagger based on OpenNLP maximum entropy
+ * Tagger based on OpenNLP maximum entropy.
+ * The model is shared, each thread tags with its own POSTaggerME so the tagger can be used concurrently.
  */
 public class OpenNLPTagger 
         implements Tagger 
 {
     public OpenNLPTagger( String modelFile ) 
             throws java.io.IOException 
+    {    
+        this( modelFile, null, opennlp.tools.postag.POSTaggerME.DEFAULT_BEAM_SIZE, 0 );
+    }
+    
+    /**
+     * @param modelFile     location of the POS model
+     * @param tagDictFile   location of a tag dictionary used to prune the tags considered for known words,
+     *                      or null to use the dictionary packaged with the model (if any)
+     * @param beamSize      number of candidate sequences kept while searching for the best tagging
+     * @param cacheSize     number of contexts cached by the context generator, or 0 for no caching
+     */
+    public OpenNLPTagger( String modelFile, String tagDictFile, final int beamSize, final int cacheSize ) 
+            throws java.io.IOException 
     {    
         java.io.InputStream in = new java.io.FileInputStream(modelFile);
-        
-        tagger = new opennlp.tools.postag.POSTaggerME( 
-                new opennlp.tools.postag.POSModel(in) );
-                //, beamSize, cacheSize, new opennlp.tools.postag.POSDictionary( dictionaryFile, caseSensitive ) );
-
+        opennlp.tools.postag.POSModel model = new opennlp.tools.postag.POSModel(in);
         in.close();
+        
+        if( tagDictFile != null )
+        {
+            // the dictionary is plain text ("word TAG TAG ..."), which only the deprecated constructor reads;
+            // POSDictionary.create reads the XML format
+            @SuppressWarnings("deprecation")
+            final opennlp.tools.postag.POSDictionary tagDict = new opennlp.tools.postag.POSDictionary( tagDictFile, true );
+            model = new opennlp.tools.postag.POSModel( 
+                    model.getLanguage(), model.getPosModel(),
+                    tagDict,
+                    model.getNgramDictionary() );
+        }
+        
+        final opennlp.tools.postag.POSModel posModel = model;
+        tagger = new ThreadLocal<WindowPOSTaggerME>()
+        {
+            @Override protected WindowPOSTaggerME initialValue()
+            {
+                return new WindowPOSTaggerME( posModel, beamSize, cacheSize );
+            }
+        };
     }
     
     /**
@@ -26,11 +64,22 @@ public class OpenNLPTagger
     @Override
     public Tagging tag( String[] tokens )
     {
+        final WindowPOSTaggerME tagger = this.tagger.get();
         String[] tags = tagger.tag(tokens);
         double[] probs = tagger.probs();
         return new Tagging( tokens, tags, probs, desc );
     }
     
+    @Override
+    public CompactTagging tagCompact( String[] tokens )
+    {
+        // the tags and probs arrays are created afresh by the tagger, so they are used as they are
+        final WindowPOSTaggerME tagger = this.tagger.get();
+        String[] tags = tagger.tag(tokens);
+        double[] probs = tagger.probs();
+        return CompactTagging.valueOf( tokens, tags, probs, desc );
+    }
+    
     /**
      * Tags a tokenized     sentence into its parts-of-speech.
      * @param sentence      tokenized sentence to tag
@@ -45,7 +94,7 @@ public class OpenNLPTagger
             return new Tagging[] { tag(tokens) };
         }
         
-        opennlp.tools.util.Sequence[] topk = tagger.topKSequences(tokens);
+        opennlp.tools.util.Sequence[] topk = tagger.get().topKSequences(tokens);
         Tagging[] taggings = new Tagging[ Math.min(topk.length, nBest) ];
         
         for( int i = 0; i < taggings.length; i++ )
@@ -56,6 +105,94 @@ public class OpenNLPTagger
         return taggings;
     }
 
-    private final opennlp.tools.postag.POSTaggerME tagger;
+    /**
+     * Re-tags a sentence in which a single token has changed since it was tagged.
+     * The tagger's context is local (the words up to two either side and the two previous tags),
+     * so only a window around the changed token is searched, seeded with the earlier tags before it,
+     * and the tags outside the window keep their earlier values.
+     * If the last tags of the window differ from the earlier ones, the change may carry on past the window,
+     * and the whole sentence is tagged instead.
+     * @param tokens    the tokenized sentence, with the changed token; it is shared with the result
+     * @param previous  a tagging of the sentence before the change, with probabilities
+     * @param changed   index of the changed token
+     * @return          the tagged sentence
+     */
+    public CompactTagging retag( String[] tokens, Tagging previous, int changed )
+    {
+        final int n = tokens.length;
+        if( previous == null || !previous.hasProbs() || previous.tags.length != n || changed < 0 || changed >= n )
+        {
+            return tagCompact( tokens );
+        }
+        
+        final int start = Math.max( 0, changed - CONTEXT_WIDTH );
+        final int end   = Math.min( n, changed + CONTEXT_WIDTH + 1 );
+        final String[] tags  = previous.tags.clone();
+        final double[] probs = previous.probs.clone();
+        
+        final Sequence window = tagger.get().tagWindow( tokens, tags, start, end );
+        final List<String> windowTags = window.getOutcomes();
+        final double[] windowProbs = window.getProbs();
+        for( int i = start; i < end; i++ )
+        {
+            final String tag = windowTags.get( i - start );
+            if( end < n && i >= end - CONTEXT_WIDTH && !tag.equals( previous.tags[i] ) )
+            {
+                return tagCompact( tokens );
+            }
+            tags[i] = tag;
+            probs[i] = windowProbs[i - start];
+        }
+        
+        return CompactTagging.valueOf( tokens, tags, probs, desc );
+    }
+    
+    /**
+     * POSTaggerME that can also search a window of a sentence, given the tags before it.
+     */
+    private static class WindowPOSTaggerME extends opennlp.tools.postag.POSTaggerME
+    {
+        WindowPOSTaggerME( opennlp.tools.postag.POSModel model, int beamSize, int cacheSize )
+        {
+            super( model, beamSize, cacheSize );
+        }
+        
+        /**
+         * @param tokens    the whole sentence
+         * @param tags      tags of the whole sentence, of which those before start are used (the rest are overwritten)
+         * @param start     first token of the window
+         * @param end       token after the last token of the window
+         * @return          the best sequence of tags for the window
+         */
+        Sequence tagWindow( final String[] tokens, final String[] tags, final int start, int end )
+        {
+            // contexts are generated against the whole sentence, with the search's own tags after the seeded ones
+            final BeamSearchContextGenerator<String> cg = new BeamSearchContextGenerator<String>()
+            {
+                @Override public String[] getContext( int index, String[] sequence, String[] priorDecisions, Object[] additionalContext )
+                {
+                    System.arraycopy( priorDecisions, 0, tags, start, index );
+                    return contextGen.getContext( start + index, tokens, tags, additionalContext );
+                }
+            };
+            // same rule as the tagger's own validator: a word in the tag dictionary only takes its listed tags
+            final SequenceValidator<String> validator = new SequenceValidator<String>()
+            {
+                @Override public boolean validSequence( int i, String[] sequence, String[] outcomes, String outcome )
+                {
+                    if( tagDictionary == null )
+                        return true;
+                    final String[] allowed = tagDictionary.getTags( sequence[i] );
+                    return allowed == null || Arrays.asList( allowed ).contains( outcome );
+                }
+            };
+            
+            return new BeamSearch<String>( size, cg, posModel, validator, 0 )
+                    .bestSequence( Arrays.copyOfRange( tokens, start, end ), null );
+        }
+    }
+
+    private final ThreadLocal<WindowPOSTaggerME> tagger;
     private final static String desc = "OpenNLP";
+    private final static int CONTEXT_WIDTH = 2;
 }
@@ -19,6 +19,17 @@ public class StanfordTagger
   
     @Override
     public Tagging tag( String[] tokens )
+    {
+        return new Tagging( tokens, tagStrings(tokens), null, desc );
+    }
+    
+    @Override
+    public CompactTagging tagCompact( String[] tokens )
+    {
+        return CompactTagging.valueOf( tokens, tagStrings(tokens), null, desc );
+    }
+    
+    private String[] tagStrings( String[] tokens )
     {
         List<HasWord> words = Sentence.toWordList(tokens);
         List<TaggedWord> taggedWords = tagger.tagSentence(words);
@@ -29,8 +40,7 @@ public class StanfordTagger
         {
             tags[i++] = tw.tag();
         }
-        
-        return new Tagging( tokens, tags , null, desc );
+        return tags;
     }
 
     /**
@@ -12,6 +12,13 @@ public interface Tagger
      */
     Tagging tag( String[] tokens );
     
+    /**
+     * Tags a tokenized     sentence into its parts-of-speech, without copying the tagger's results.
+     * @param sentence      the tokenized sentence to tag; it is shared with the result and must not be modified
+     * @return              the tagged sentence
+     */
+    CompactTagging tagCompact( String[] tokens );
+    
     /**
      * Tags a tokenized     sentence into its parts-of-speech.
      * @param sentence      tokenized sentence to tag
@@ -0,0 +1,217 @@
+package grammartools.ui;
+
+import grammartools.GrammarTools;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Headless command line for all the tools: reads text from files or stdin and writes the output of the tool to stdout.
+ * Options of the tool are given by name, e.g.
+ * <pre>
+ * GrammarToolsConsoleApp parse --maxResults=2 --showProbs &lt; sentences.txt
+ * GrammarToolsConsoleApp dataset --outputFile=out.arff --nThreads=4 --toolkit=fast corpus1.txt corpus2.txt
+ * GrammarToolsConsoleApp dcg --profile --showRules &lt; sentences.txt
+ * </pre>
+ * The toolkit profile is chosen with --toolkit, as --profile is an option of the DCG tool.
+ * The input is streamed: it is run in chunks of whole lines, each run as soon as no more input is waiting
+ * or the chunk is large, and the output is written as it is reported, so the CLI can be used in pipelines
+ * on inputs of any size (e.g. one sentence per line).
+ * The stats tool, which reads a GrammarTools XML document, is run on the whole input.
+ */
+public class GrammarToolsConsoleApp
+{
+    public static void main( final String[] args )
+    {
+        if(args.length == 0)
+        {
+            printUsage();
+            System.exit(2);
+        }
+
+        final ToolType tool;
+        final Object options;
+        GrammarTools.ToolkitProfile profile = GrammarTools.ToolkitProfile.BALANCED;
+        final List<String> files = new ArrayList<String>();
+        try
+        {
+            tool = ToolOptions.findTool(args[0]);
+            options = ToolOptions.createOptions(tool);
+            for(int i = 1; i < args.length; i++)
+            {
+                final String arg = args[i];
+                if(!arg.startsWith("--"))
+                {
+                    files.add(arg);
+                    continue;
+                }
+
+                // --name=value, or --name for a flag
+                final int eq = arg.indexOf('=');
+                final String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+                final String value = eq < 0 ? "true" : arg.substring(eq + 1);
+                if(name.equals("toolkit"))
+                    profile = GrammarTools.ToolkitProfile.fromString(value);
+                else
+                    ToolOptions.setOption(options, name, value);
+            }
+        }
+        catch(IllegalArgumentException ex)
+        {
+            System.err.println(ex.getLocalizedMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        final GrammarTools grammarTools = new GrammarTools();
+        if(tool != ToolType.STATS)
+        {
+            try
+            {
+                System.err.println("Initializing OpenNLP tools (" + profile + ")...");
+                grammarTools.initOpenNLPToolkit( DEF_OPENNLP_MODEL_PATH, profile );
+
+                System.err.println("Initializing Stanford tools (" + profile + ")...");
+                grammarTools.initStanfordToolkit( DEF_STANFORD_MODEL_PATH, profile );
+            }
+            catch(Exception ex)
+            {
+                ex.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+        try
+        {
+            final PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"));
+            grammarTools.setUIWorker(
+                new GrammarTools.UIWorker()
+                {
+                    @Override
+                    public void update(double progress, String message)
+                    {
+                        if(message != null && !message.isEmpty())
+                        {
+                            out.print(message);
+                            out.flush();
+                        }
+                    }
+                    @Override
+                    public boolean isCancelled()
+                    {
+                        // e.g. the reader of a pipeline has exited
+                        return out.checkError();
+                    }
+                });
+
+            final BufferedReader in = new BufferedReader(new InputStreamReader(openInput(files), "UTF-8"));
+            try
+            {
+                if(tool == ToolType.STATS)
+                {
+                    run(grammarTools, tool, readAll(in), options);
+                }
+                else
+                {
+                    for(String chunk = readChunk(in); chunk != null; chunk = readChunk(in))
+                    {
+                        run(grammarTools, tool, chunk, options);
+                        if(out.checkError())
+                            break;
+                    }
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            out.flush();
+        }
+        catch(IOException ex)
+        {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+
+        // abandoned items may still be running
+        System.exit(0);
+    }
+
+    private static void run(GrammarTools grammarTools, ToolType tool, String input, Object options)
+            throws IOException
+    {
+        if(input.trim().isEmpty())
+            return;
+
+        ToolOptions.run(grammarTools, tool, input, options);
+
+        // tools writing a file start it on the first run and add to it after
+        if(options instanceof GrammarTools.DatasetOptions)
+            ((GrammarTools.DatasetOptions)options).isAppending = true;
+        if(options instanceof GrammarTools.XmlOptions)
+            ((GrammarTools.XmlOptions)options).isAppending = true;
+    }
+
+    private static InputStream openInput(List<String> files)
+            throws IOException
+    {
+        if(files.isEmpty())
+            return System.in;
+
+        final List<InputStream> streams = new ArrayList<InputStream>();
+        for(String file : files)
+            streams.add(file.equals("-") ? System.in : new FileInputStream(new File(file)));
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    /**
+     * Reads whole lines until no more input is waiting or the chunk has MAX_CHUNK_CHARS,
+     * so a slow producer gets its output line by line, while a file is run in large batches.
+     * @return the next chunk, or null at the end of the input
+     */
+    private static String readChunk(BufferedReader in)
+            throws IOException
+    {
+        final StringBuilder chunk = new StringBuilder();
+        for(String line = in.readLine(); line != null; line = in.readLine())
+        {
+            chunk.append(line).append('\n');
+            if(chunk.length() >= MAX_CHUNK_CHARS || !in.ready())
+                return chunk.toString();
+        }
+        return chunk.length() > 0 ? chunk.toString() : null;
+    }
+
+    private static String readAll(BufferedReader in)
+            throws IOException
+    {
+        final StringBuilder text = new StringBuilder();
+        for(String line = in.readLine(); line != null; line = in.readLine())
+            text.append(line).append('\n');
+        return text.toString();
+    }
+
+    private static void printUsage()
+    {
+        System.err.println("Usage: GrammarToolsConsoleApp <tool> [--<option>=<value> ...] [--toolkit=fast|balanced|accurate] [file ...]");
+        System.err.println("Reads stdin if no files are given, or for the file -\n");
+        for(ToolType t : ToolType.values())
+            System.err.println(String.format("%-10s %s", t.toString().toLowerCase(), t.getDescription()));
+    }
+
+    private static final int MAX_CHUNK_CHARS = 1 << 16;
+
+    private static final String SEP = File.separator;
+    private static final String DEF_OPENNLP_MODEL_PATH  = "models" + SEP + "opennlp";
+    private static final String DEF_STANFORD_MODEL_PATH = "models" + SEP + "stanford";
+}
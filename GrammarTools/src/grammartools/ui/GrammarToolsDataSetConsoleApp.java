@@ -28,6 +28,18 @@ public class GrammarToolsDataSetConsoleApp
         final double nErrors = Double.valueOf(args[0].trim());
         final File  inputFile = new File(args[1]);
         String outputFile = args[2];
+        GrammarTools.ToolkitProfile profile = GrammarTools.ToolkitProfile.BALANCED;
+        if(args.length > 3)
+        {
+            try
+            {
+                profile = GrammarTools.ToolkitProfile.fromString(args[3]);
+            }
+            catch(IllegalArgumentException ex)
+            {
+                System.out.println("Warning: unknown profile '" + args[3] + "', using " + profile);
+            }
+        }
         final List<Exception> errors = new LinkedList<Exception>();
         
         if(!inputFile.exists())
@@ -43,11 +55,11 @@ public class GrammarToolsDataSetConsoleApp
         
         try
         {
-            System.out.println("Initializing OpenNLP tools...");
-            grammarTools.initOpenNLPToolkit( DEF_OPENNLP_MODEL_PATH ); 
+            System.out.println("Initializing OpenNLP tools (" + profile + ")...");
+            grammarTools.initOpenNLPToolkit( DEF_OPENNLP_MODEL_PATH, profile ); 
             
-            System.out.println("Initializing Stanford tools...");
-            grammarTools.initStanfordToolkit( DEF_STANFORD_MODEL_PATH ); 
+            System.out.println("Initializing Stanford tools (" + profile + ")...");
+            grammarTools.initStanfordToolkit( DEF_STANFORD_MODEL_PATH, profile ); 
         }
         catch(Exception ex)
         {
@@ -79,6 +91,8 @@ public class GrammarToolsDataSetConsoleApp
         options.outputFormat = GrammarTools.DatasetOptions.OutputFormat.ARFF;
         options.outputFile = outputFile;
         options.nGrammaticalErrorsPerSentence = nErrors;
+        options.maxSentenceLength = DEF_MAX_SENTENCE_LENGTH;
+        options.nThreads = Runtime.getRuntime().availableProcessors();
         
         try
         {
@@ -89,6 +103,7 @@ public class GrammarToolsDataSetConsoleApp
             ex.printStackTrace();
         }
         
+        final int nSentences = grammarTools.getStanfordToolkit().sentenceSplitter.split(input).length;
         final long start = System.currentTimeMillis()/1000;
         
         try
@@ -104,6 +119,9 @@ public class GrammarToolsDataSetConsoleApp
         final long end = System.currentTimeMillis()/1000;
         
         System.out.println("\nTotal time: " + (end - start) + " seconds");
+        System.out.printf("Throughput (%s, %d threads): %.3f sentences/s\n", profile, options.nThreads, nSentences / (double)Math.max(1, end - start));
+        System.out.println("Abandoned (timed out): " + grammarTools.getAbandonedItemCount() 
+                           + ", still running: " + grammarTools.getRunningAbandonedItemCount());
     }
     
     private static final String SEP = File.separator;
@@ -111,4 +129,5 @@ public class GrammarToolsDataSetConsoleApp
     private static final String DEF_STANFORD_MODEL_PATH = "models" + SEP + "stanford";
     private static final String DEF_INPUT_GRAMMAR_FILE = "grammar.pl";
     private static final String DEF_OUTPUT_DATASET_FILE = "sentences.arff";    
+    private static final int DEF_MAX_SENTENCE_LENGTH = 50;
 }
@@ -0,0 +1,666 @@
+package grammartools.ui;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import grammartools.GrammarTools;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless server that keeps the toolkits loaded and runs tools for other processes on the same machine over HTTP,
+ * so they do not pay for loading the models on every run.
+ * The text is POSTed (UTF-8) to the tool, options of the tool are given by name as query parameters,
+ * and the tool's output is returned as plain text, e.g.
+ * <pre>
+ * curl -H "Content-Type: application/octet-stream" --data-binary @sentences.txt "http://localhost:8090/parse?maxResults=2&amp;showProbs=true"
+ * </pre>
+ * Tag, chunk, parse, DCG, function (sentence features) and classify are served; a GET of / lists them.
+ * <p>
+ * A request can only set the options that change how its text is analysed and reported, and the limits
+ * on the work of a request (time budget of a sentence, sentence length, number of results) only below the
+ * server's own, which apply by default, so that no request can hold a session for long. The files and the
+ * function script the tools use are fixed when the server is started ({@link #setOption(String, String)}),
+ * so a request can neither run a script of its own nor make the server read or write other files.
+ * Web pages open in a browser cannot call the server either: a request must name the server as localhost
+ * in its Host header and must not have a content type that a page may send to another site without asking
+ * (text/plain, a form or none), which a browser only sends after a CORS check the server never passes.
+ * <p>
+ * Each request runs on its own session, which shares the toolkits of the server, and a fixed number of requests
+ * are processed at the same time. Requests beyond those wait in a bounded queue; a request that finds the queue full,
+ * or waits longer than a maximum time, is rejected with 503 (Service Unavailable) and a Retry-After header,
+ * so the latency of the admitted requests stays bounded under overload.
+ * Identical requests (same tool, options and text) that arrive while one of them is queued or running
+ * share its run and its response; as many requests as can be queued or running may wait for another this way.
+ * A request is accepted before its text is read, and its text may be at most {@link #MAX_INPUT_BYTES} long,
+ * so the handler threads and the memory of the server stay bounded as well.
+ */
+public class GrammarToolsServer
+{
+    /**
+     * @param tools     the tools, with their toolkits initialized
+     * @param nSessions number of requests processed at the same time
+     */
+    public GrammarToolsServer( GrammarTools tools, int nSessions )
+    {
+        this( tools, nSessions, nSessions * DEF_QUEUED_PER_SESSION, DEF_MAX_QUEUE_TIME );
+    }
+
+    /**
+     * @param tools         the tools, with their toolkits initialized
+     * @param nSessions     number of requests processed at the same time
+     * @param maxQueued     number of requests waiting for a session, beyond which requests are rejected
+     * @param maxQueueTime  milliseconds a request waits for a session before it is rejected
+     */
+    public GrammarToolsServer( GrammarTools tools, int nSessions, int maxQueued, long maxQueueTime )
+    {
+        this.tools = tools;
+        this.maxQueueTime = maxQueueTime;
+        this.maxAccepted = 2 * (nSessions + maxQueued);
+        this.accepted = new Semaphore( maxAccepted );
+        this.admitted = new Semaphore( nSessions + maxQueued );
+        this.running = new Semaphore( nSessions );
+    }
+
+    /**
+     * Sets an option for every request to the tools that have it, e.g. the grammar file, the classifier model
+     * or the function script. Requests cannot set these options themselves. For a limit (maxItemProcessTime,
+     * maxSentenceLength, maxResults) the value is the default and the maximum for requests, and must be positive.
+     * Options are set before the server starts.
+     * @param name      name of the option, e.g. "grammarFile"
+     * @param value     the value as text
+     * @throws IllegalArgumentException if no served tool has the option or the value is not valid for it
+     */
+    public synchronized void setOption( String name, String value )
+    {
+        if( limits.containsKey( name ) )
+        {
+            limits.put( name, parseLimit( name, value, Long.MAX_VALUE ) );
+            return;
+        }
+
+        boolean isKnown = false;
+        for( ToolType tool : REQUEST_OPTIONS.keySet() )
+        {
+            final Object options = ToolOptions.createOptions( tool );
+            if( ToolOptions.hasOption( options, name ) )
+            {
+                ToolOptions.setOption( options, name, value );
+                isKnown = true;
+            }
+        }
+        if( !isKnown )
+            throw new IllegalArgumentException( "Unknown option: " + name );
+        settings.put( name, value );
+    }
+
+    /**
+     * Starts serving requests.
+     * @param address   the address to listen on
+     */
+    public synchronized void start( InetSocketAddress address )
+            throws IOException
+    {
+        // a handler thread only blocks while its request is accepted; the spare threads answer the requests
+        // that are refused or need no tool at once, even when all accepted requests are waiting
+        executor = Executors.newFixedThreadPool( maxAccepted + SPARE_HANDLERS );
+        server = HttpServer.create( address, 0 );
+        server.setExecutor( executor );
+        server.createContext( "/",
+            new HttpHandler()
+            {
+                @Override
+                public void handle( HttpExchange exchange )
+                        throws IOException
+                {
+                    try
+                    {
+                        GrammarToolsServer.this.handle( exchange );
+                    }
+                    finally
+                    {
+                        exchange.close();
+                    }
+                }
+            });
+        server.start();
+    }
+
+    /**
+     * Stops serving requests, waiting a moment for the requests being processed.
+     */
+    public synchronized void stop()
+    {
+        if( server == null )
+            return;
+        server.stop( STOP_DELAY );
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+    private void handle( HttpExchange exchange )
+            throws IOException
+    {
+        if( !isLocalHost( exchange.getRequestHeaders().getFirst( "Host" ) ) )
+        {
+            // e.g. a page whose site name has been pointed at this machine
+            respond( exchange, 403, "Requests must be addressed to localhost\n" );
+            return;
+        }
+
+        final String name = exchange.getRequestURI().getPath().replaceAll( "^/+|/+$", "" );
+        if( name.isEmpty() )
+        {
+            respond( exchange, 200, getUsage() );
+            return;
+        }
+
+        final ToolType tool;
+        try
+        {
+            tool = ToolOptions.findTool( name );
+        }
+        catch( IllegalArgumentException e )
+        {
+            respond( exchange, 404, e.getMessage() + "\n" );
+            return;
+        }
+        if( !REQUEST_OPTIONS.containsKey( tool ) )
+        {
+            respond( exchange, 404, "Tool not served: " + tool + "\n" );
+            return;
+        }
+        if( !"POST".equals( exchange.getRequestMethod() ) )
+        {
+            exchange.getResponseHeaders().set( "Allow", "POST" );
+            respond( exchange, 405, "Tools take their input by POST\n" );
+            return;
+        }
+        if( isSimpleContentType( exchange.getRequestHeaders().getFirst( "Content-Type" ) ) )
+        {
+            respond( exchange, 415, "Send the text with a content type other than text/plain or a form, "
+                                    + "e.g. application/octet-stream\n" );
+            return;
+        }
+
+        final Object options = ToolOptions.createOptions( tool );
+        try
+        {
+            final Map<String, Long> requestLimits;
+            synchronized( this )
+            {
+                for( Map.Entry<String, String> e : settings.entrySet() )
+                {
+                    if( ToolOptions.hasOption( options, e.getKey() ) )
+                        ToolOptions.setOption( options, e.getKey(), e.getValue() );
+                }
+                requestLimits = new LinkedHashMap<String, Long>( limits );
+            }
+            for( Map.Entry<String, Long> e : requestLimits.entrySet() )
+            {
+                if( ToolOptions.hasOption( options, e.getKey() ) )
+                    ToolOptions.setOption( options, e.getKey(), e.getValue().toString() );
+            }
+            for( Map.Entry<String, String> e : parseQuery( exchange.getRequestURI().getRawQuery() ).entrySet() )
+            {
+                if( !REQUEST_OPTIONS.get( tool ).contains( e.getKey() ) )
+                    throw new IllegalArgumentException( "Option cannot be set by a request: " + e.getKey() );
+                // a request may lower a limit, never lift it
+                if( requestLimits.containsKey( e.getKey() ) )
+                    parseLimit( e.getKey(), e.getValue(), requestLimits.get( e.getKey() ) );
+                ToolOptions.setOption( options, e.getKey(), e.getValue() );
+            }
+        }
+        catch( IllegalArgumentException e )
+        {
+            respond( exchange, 400, e.getMessage() + "\n" );
+            return;
+        }
+
+        if( !accepted.tryAcquire() )
+        {
+            rejectBusy( exchange, "Server busy: too many requests" );
+            return;
+        }
+        try
+        {
+            final byte[] bytes = readAll( exchange.getRequestBody(), MAX_INPUT_BYTES );
+            if( bytes == null )
+            {
+                respond( exchange, 413, "Text longer than " + MAX_INPUT_BYTES + " bytes\n" );
+                return;
+            }
+            final String input = new String( bytes, "UTF-8" ).trim();
+            respond( exchange, 200, coalesce( tool, input, options, exchange.getRequestURI().getRawQuery() ) );
+        }
+        catch( BusyException e )
+        {
+            rejectBusy( exchange, e.getMessage() );
+        }
+        catch( InterruptedException e )
+        {
+            respond( exchange, 503, "Server is stopping\n" );
+        }
+        catch( Exception e )
+        {
+            e.printStackTrace();
+            respond( exchange, 500, e + "\n" );
+        }
+        finally
+        {
+            accepted.release();
+        }
+    }
+
+    private void rejectBusy( HttpExchange exchange, String message )
+            throws IOException
+    {
+        rejected.incrementAndGet();
+        exchange.getResponseHeaders().set( "Retry-After", RETRY_AFTER );
+        respond( exchange, 503, message + "\n" );
+    }
+
+    /**
+     * Runs a request if it can be admitted, or waits for the identical request already queued or running,
+     * which adds no work and so needs no admission (the request has been accepted, which bounds the waiters).
+     */
+    private String coalesce( final ToolType tool, final String input, final Object options, String query )
+            throws Exception
+    {
+        final String key = tool + "?" + query + "\n" + input;
+        FutureTask<String> call = inFlight.get( key );
+        if( call != null )
+        {
+            coalesced.incrementAndGet();
+        }
+        else
+        {
+            if( !admitted.tryAcquire() )
+                throw new BusyException( "Server busy: too many requests queued" );
+            try
+            {
+                final FutureTask<String> own = new FutureTask<String>(
+                    new Callable<String>()
+                    {
+                        @Override
+                        public String call()
+                                throws Exception
+                        {
+                            return run( tool, input, options );
+                        }
+                    });
+                call = inFlight.putIfAbsent( key, own );
+                if( call != null )
+                {
+                    coalesced.incrementAndGet();
+                }
+                else
+                {
+                    call = own;
+                    try
+                    {
+                        own.run();
+                    }
+                    finally
+                    {
+                        inFlight.remove( key );
+                    }
+                }
+            }
+            finally
+            {
+                admitted.release();
+            }
+        }
+
+        try
+        {
+            return call.get();
+        }
+        catch( ExecutionException e )
+        {
+            if( e.getCause() instanceof Exception )
+                throw (Exception)e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a tool on a new session, collecting what it reports.
+     */
+    private String run( ToolType tool, String input, Object options )
+            throws BusyException, InterruptedException, IOException
+    {
+        final StringBuffer output = new StringBuffer();
+        if( !running.tryAcquire( maxQueueTime, TimeUnit.MILLISECONDS ) )
+            throw new BusyException( "Server busy: no session within " + maxQueueTime + " ms" );
+        try
+        {
+            final GrammarTools session = new GrammarTools( tools );
+            session.setUIWorker(
+                new GrammarTools.UIWorker()
+                {
+                    @Override
+                    public void update( double progress, String message )
+                    {
+                        if( message != null )
+                            output.append( message );
+                    }
+                    @Override
+                    public boolean isCancelled()
+                    {
+                        return false;
+                    }
+                });
+            ToolOptions.run( session, tool, input, options );
+        }
+        finally
+        {
+            running.release();
+        }
+        return output.toString();
+    }
+
+    private static void respond( HttpExchange exchange, int status, String text )
+            throws IOException
+    {
+        final byte[] body = text.getBytes( "UTF-8" );
+        exchange.getResponseHeaders().set( "Content-Type", "text/plain; charset=UTF-8" );
+        exchange.sendResponseHeaders( status, body.length );
+        final OutputStream out = exchange.getResponseBody();
+        out.write( body );
+        out.close();
+    }
+
+    /**
+     * @return  the limit, checked to be between 1 and max
+     * @throws IllegalArgumentException if it is not
+     */
+    private static long parseLimit( String name, String value, long max )
+    {
+        final long limit;
+        try
+        {
+            limit = Long.parseLong( value.trim() );
+        }
+        catch( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "Invalid value for " + name + ": " + value );
+        }
+        if( limit < 1 || limit > max )
+        {
+            throw new IllegalArgumentException( name + (max == Long.MAX_VALUE ? " must be positive: " 
+                                                                              : " must be between 1 and " + max + ": ") + value );
+        }
+        return limit;
+    }
+
+    /**
+     * @param host  the Host header of a request, or null
+     * @return      whether the request names this machine as localhost (a request without a Host header is not from a browser)
+     */
+    private static boolean isLocalHost( String host )
+    {
+        if( host == null )
+            return true;
+        host = host.trim().toLowerCase();
+        final int colon = host.lastIndexOf( ':' );
+        if( colon >= 0 && host.indexOf( ']' ) < colon )
+            host = host.substring( 0, colon );
+        return host.equals( "localhost" ) || host.equals( "127.0.0.1" ) || host.equals( "[::1]" );
+    }
+
+    /**
+     * @param contentType   the Content-Type header of a request, or null
+     * @return              whether a web page may send the request to another site without a CORS check
+     */
+    private static boolean isSimpleContentType( String contentType )
+    {
+        if( contentType == null )
+            return true;
+        final String type = contentType.split( ";" )[0].trim().toLowerCase();
+        return type.isEmpty() || type.equals( "text/plain" ) || type.equals( "application/x-www-form-urlencoded" )
+                || type.equals( "multipart/form-data" );
+    }
+
+    private static Map<String, String> parseQuery( String query )
+            throws UnsupportedEncodingException
+    {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        if( query == null || query.isEmpty() )
+            return params;
+        for( String param : query.split( "&" ) )
+        {
+            if( param.isEmpty() )
+                continue;
+            final int eq = param.indexOf( '=' );
+            // a parameter without a value is a flag, e.g. ?showProbs
+            params.put( URLDecoder.decode( eq < 0 ? param : param.substring( 0, eq ), "UTF-8" ),
+                        eq < 0 ? "true" : URLDecoder.decode( param.substring( eq + 1 ), "UTF-8" ) );
+        }
+        return params;
+    }
+
+    /**
+     * @return the bytes read, or null if there are more than maxBytes
+     */
+    private static byte[] readAll( InputStream in, int maxBytes )
+            throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        for( int n = in.read( buffer ); n >= 0; n = in.read( buffer ) )
+        {
+            if( bytes.size() + n > maxBytes )
+                return null;
+            bytes.write( buffer, 0, n );
+        }
+        return bytes.toByteArray();
+    }
+
+    private String getUsage()
+    {
+        String usage = "GrammarTools server\nPOST the text (Content-Type: application/octet-stream) to /<tool>?<option>=<value>&...\n\n";
+        for( Map.Entry<ToolType, Set<String>> e : REQUEST_OPTIONS.entrySet() )
+        {
+            usage += "/" + e.getKey().toString().toLowerCase() + "\t" + e.getKey().getDescription() + "\n"
+                     + "\toptions: " + e.getValue() + "\n";
+        }
+        synchronized( this )
+        {
+            usage += "\nlimits (defaults and maximums): " + limits + "\n";
+        }
+        usage += "\n" + running.availablePermits() + " sessions idle, " + inFlight.size() + " distinct requests queued or running, "
+                 + coalesced.get() + " requests coalesced, " + rejected.get() + " rejected\n";
+        return usage;
+    }
+
+    /**
+     * A request that could not be admitted in time.
+     */
+    private static final class BusyException
+            extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        BusyException( String message )
+        {
+            super( message );
+        }
+    }
+
+    /**
+     * Runs the server on localhost.
+     * @param args  [port [toolkit profile [number of requests processed at the same time [number of requests queued]]]]
+     *              followed by any options fixed for all requests, as name=value, e.g. grammarFile=grammar.pl
+     */
+    public static void main( final String[] args )
+            throws IOException
+    {
+        System.out.println("GrammarTools - Server");
+
+        int port = DEF_PORT;
+        int nSessions = Runtime.getRuntime().availableProcessors();
+        int maxQueued = -1;
+        GrammarTools.ToolkitProfile profile = GrammarTools.ToolkitProfile.BALANCED;
+        final Map<String, String> settings = new LinkedHashMap<String, String>();
+        try
+        {
+            final List<String> positional = new ArrayList<String>();
+            for(String arg : args)
+            {
+                final int eq = arg.indexOf('=');
+                if(eq < 0)
+                    positional.add(arg);
+                else
+                    settings.put(arg.substring(0, eq).trim(), arg.substring(eq + 1));
+            }
+            if(positional.size() > 0)
+                port = Integer.parseInt(positional.get(0).trim());
+            if(positional.size() > 1)
+                profile = GrammarTools.ToolkitProfile.fromString(positional.get(1));
+            if(positional.size() > 2)
+                nSessions = Integer.parseInt(positional.get(2).trim());
+            if(positional.size() > 3)
+                maxQueued = Integer.parseInt(positional.get(3).trim());
+        }
+        catch(IllegalArgumentException ex)
+        {
+            System.out.println("Invalid arguments: " + ex.getLocalizedMessage());
+            System.out.println("Usage: GrammarToolsServer [port [profile [sessions [queued]]]] [option=value ...]");
+            return;
+        }
+
+        final GrammarTools grammarTools = new GrammarTools();
+        try
+        {
+            System.out.println("Initializing OpenNLP tools (" + profile + ")...");
+            grammarTools.initOpenNLPToolkit( DEF_OPENNLP_MODEL_PATH, profile );
+
+            System.out.println("Initializing Stanford tools (" + profile + ")...");
+            grammarTools.initStanfordToolkit( DEF_STANFORD_MODEL_PATH, profile );
+        }
+        catch(Exception ex)
+        {
+            ex.printStackTrace();
+            return;
+        }
+
+        if(maxQueued < 0)
+            maxQueued = nSessions * DEF_QUEUED_PER_SESSION;
+        final GrammarToolsServer server = new GrammarToolsServer(grammarTools, nSessions, maxQueued, DEF_MAX_QUEUE_TIME);
+        try
+        {
+            for(Map.Entry<String, String> e : settings.entrySet())
+                server.setOption(e.getKey(), e.getValue());
+        }
+        catch(IllegalArgumentException ex)
+        {
+            System.out.println("Invalid option: " + ex.getLocalizedMessage());
+            return;
+        }
+        server.start(new InetSocketAddress(InetAddress.getByName("localhost"), port));
+        System.out.println("Listening on http://localhost:" + port + "/ (" + nSessions + " sessions, " + maxQueued + " queued)");
+
+        Runtime.getRuntime().addShutdownHook(
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    server.stop();
+                }
+            });
+    }
+
+    private final GrammarTools tools;
+    private final long maxQueueTime;
+    private final int maxAccepted;
+    private final Semaphore accepted;                      // requests being read, admitted or waiting for an identical request
+    private final Semaphore admitted;                      // requests running or waiting for a session
+    private final Semaphore running;                       // requests running
+    private final ConcurrentMap<String, FutureTask<String>> inFlight = new ConcurrentHashMap<String, FutureTask<String>>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final Map<String, String> settings = new LinkedHashMap<String, String>();   // guarded by this
+    private final Map<String, Long> limits = new LinkedHashMap<String, Long>( DEF_LIMITS ); // guarded by this
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * The tools served, with the options a request may set. Files, the function script and the number of threads
+     * are left out: they are set when the server is started.
+     */
+    private static final Map<ToolType, Set<String>> REQUEST_OPTIONS = createRequestOptions();
+
+    private static Map<ToolType, Set<String>> createRequestOptions()
+    {
+        final Map<ToolType, Set<String>> m = new EnumMap<ToolType, Set<String>>( ToolType.class );
+        final String[] display = { "showProbs", "probPrecision", "maxResults", "maxItemProcessTime" };
+        m.put( ToolType.TAG,      toSet( display ) );
+        m.put( ToolType.CHUNK,    toSet( display ) );
+        m.put( ToolType.PARSE,    toSet( display ) );
+        m.put( ToolType.DCG,      toSet( "showRules", "profile", "maxItemProcessTime" ) );
+        m.put( ToolType.FUNCTION, toSet( "maxItemProcessTime", "maxSentenceLength" ) );
+        m.put( ToolType.CLASSIFY, toSet( "errorThreshold", "isNumericClass", "showCorrect", "showIncorrect",
+                                         "maxItemProcessTime", "maxSentenceLength" ) );
+        return Collections.unmodifiableMap( m );
+    }
+
+    /**
+     * Default limits on the work of a request, which requests may only lower.
+     */
+    private static final Map<String, Long> DEF_LIMITS = createDefaultLimits();
+
+    private static Map<String, Long> createDefaultLimits()
+    {
+        final Map<String, Long> m = new LinkedHashMap<String, Long>();
+        m.put( "maxItemProcessTime", 10000L );  // milliseconds per sentence
+        m.put( "maxSentenceLength", 50L );      // tokens before segmenting, as in the dataset console app
+        m.put( "maxResults", 10L );             // k-best taggings, chunkings and parses
+        return Collections.unmodifiableMap( m );
+    }
+
+    private static Set<String> toSet( String... names )
+    {
+        return Collections.unmodifiableSet( new LinkedHashSet<String>( Arrays.asList( names ) ) );
+    }
+
+    private static final String SEP = File.separator;
+    private static final String DEF_OPENNLP_MODEL_PATH  = "models" + SEP + "opennlp";
+    private static final String DEF_STANFORD_MODEL_PATH = "models" + SEP + "stanford";
+    private static final int DEF_PORT = 8090;
+    private static final int DEF_QUEUED_PER_SESSION = 4;
+    private static final long DEF_MAX_QUEUE_TIME = 30000;  // milliseconds
+    private static final String RETRY_AFTER = "1";         // seconds
+    private static final int SPARE_HANDLERS = 4;           // handler threads beyond the accepted requests
+    private static final int MAX_INPUT_BYTES = 16 * 1024 * 1024;
+    private static final int STOP_DELAY = 2;   // seconds
+}
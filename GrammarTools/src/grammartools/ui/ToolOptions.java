@@ -0,0 +1,210 @@
+package grammartools.ui;
+
+import grammartools.GrammarTools;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Runs the tools without the GUI: creates the options of a tool with the defaults of the console apps,
+ * sets them by field name from text (e.g. a query parameter or command line argument), and runs the tool.
+ */
+public final class ToolOptions
+{
+    private ToolOptions() {}
+
+    /**
+     * @param name  name of a tool, e.g. "parse", case-insensitive
+     * @return      the tool
+     * @throws IllegalArgumentException if there is no such tool
+     */
+    public static ToolType findTool( String name )
+    {
+        for( ToolType t : ToolType.values() )
+        {
+            if( t.toString().equalsIgnoreCase( name ) )
+                return t;
+        }
+        throw new IllegalArgumentException( "Unknown tool: " + name );
+    }
+
+    /**
+     * Creates the options of a tool, with the files the tools use by default (grammar.pl, sentences.arff, ...)
+     * and the default function script.
+     * @param tool  the tool
+     * @return      the options, e.g. a {@link GrammarTools.ParseOptions} for {@link ToolType#PARSE}
+     */
+    public static Object createOptions( ToolType tool )
+    {
+        switch( tool )
+        {
+            case TAG:       return new GrammarTools.TagOptions();
+            case CHUNK:     return new GrammarTools.ChunkOptions();
+            case PARSE:     return new GrammarTools.ParseOptions();
+            case FUNCTION:
+            {
+                final GrammarTools.FunctionOptions o = new GrammarTools.FunctionOptions();
+                o.functionScript = getDefaultFunctionScript();
+                o.grammarFile = DEF_GRAMMAR_FILE;
+                return o;
+            }
+            case DATASET:
+            {
+                final GrammarTools.DatasetOptions o = new GrammarTools.DatasetOptions();
+                o.functionScript = getDefaultFunctionScript();
+                o.grammarFile = DEF_GRAMMAR_FILE;
+                o.outputFile = DEF_DATASET_FILE;
+                o.outputFormat = GrammarTools.DatasetOptions.OutputFormat.ARFF;
+                o.useBinaryAttrib = true;
+                o.useNumericAttrib = true;
+                return o;
+            }
+            case XML:
+            {
+                final GrammarTools.XmlOptions o = new GrammarTools.XmlOptions();
+                o.outputFile = DEF_XML_FILE;
+                return o;
+            }
+            case STATS:
+            {
+                final GrammarTools.StatsOptions o = new GrammarTools.StatsOptions();
+                o.constituents = new String[]{ "NP", "VP" };
+                return o;
+            }
+            case DCG:
+            {
+                final GrammarTools.DcgOptions o = new GrammarTools.DcgOptions();
+                o.grammarFile = DEF_GRAMMAR_FILE;
+                return o;
+            }
+            case CLASSIFY:
+            {
+                final GrammarTools.ClassifyOptions o = new GrammarTools.ClassifyOptions();
+                o.functionScript = getDefaultFunctionScript();
+                o.grammarFile = DEF_GRAMMAR_FILE;
+                o.modelFile = DEF_MODEL_FILE;
+                o.showCorrect = true;
+                o.showIncorrect = true;
+                return o;
+            }
+            default:
+                throw new IllegalArgumentException( "Unknown tool: " + tool );
+        }
+    }
+
+    /**
+     * Sets an option from text. Booleans, numbers, strings, enums and comma-separated string arrays are supported.
+     * @param options   options created by {@link #createOptions(ToolType)}
+     * @param name      name of the option, i.e. of its field, e.g. "maxResults"
+     * @param value     the value as text
+     * @throws IllegalArgumentException if there is no such option or the value is not valid for it
+     */
+    public static void setOption( Object options, String name, String value )
+    {
+        final Field f = findOption( options, name );
+        if( f == null )
+            throw new IllegalArgumentException( "Unknown option: " + name );
+
+        try
+        {
+            f.set( options, parse( f.getType(), value.trim() ) );
+        }
+        catch( IllegalAccessException e )
+        {
+            throw new IllegalArgumentException( "Unknown option: " + name );
+        }
+        catch( IllegalArgumentException e )
+        {
+            throw new IllegalArgumentException( "Invalid value for " + name + ": " + value );
+        }
+    }
+
+    /**
+     * @param options   options created by {@link #createOptions(ToolType)}
+     * @param name      name of an option, e.g. "maxResults"
+     * @return          whether the options have such an option
+     */
+    public static boolean hasOption( Object options, String name )
+    {
+        return findOption( options, name ) != null;
+    }
+
+    /**
+     * Runs a tool, which reports its output to the UI worker of the tools.
+     * @param tools     the tools, with their toolkits initialized
+     * @param tool      the tool to run
+     * @param input     the text to process, or for the stats tool GrammarTools XML sentences
+     * @param options   options created by {@link #createOptions(ToolType)}
+     */
+    public static void run( GrammarTools tools, ToolType tool, String input, Object options )
+            throws IOException
+    {
+        switch( tool )
+        {
+            case TAG:       tools.runTagTool( input, (GrammarTools.TagOptions)options );             break;
+            case CHUNK:     tools.runChunkTool( input, (GrammarTools.ChunkOptions)options );         break;
+            case PARSE:     tools.runParseTool( input, (GrammarTools.ParseOptions)options );         break;
+            case FUNCTION:  tools.runFunctionTool( input, (GrammarTools.FunctionOptions)options );   break;
+            case DATASET:   tools.runDatasetTool( input, (GrammarTools.DatasetOptions)options );     break;
+            case XML:       tools.runXmlTool( input, (GrammarTools.XmlOptions)options );             break;
+            case STATS:     tools.runStatsTool( input, (GrammarTools.StatsOptions)options );         break;
+            case DCG:       tools.runDcgTool( input, (GrammarTools.DcgOptions)options );             break;
+            case CLASSIFY:  tools.runClassifyTool( input, (GrammarTools.ClassifyOptions)options );   break;
+        }
+    }
+
+    private static Field findOption( Object options, String name )
+    {
+        final Field f;
+        try
+        {
+            f = options.getClass().getField( name );
+        }
+        catch( NoSuchFieldException e )
+        {
+            return null;
+        }
+        return Modifier.isStatic( f.getModifiers() ) || Modifier.isFinal( f.getModifiers() ) ? null : f;
+    }
+
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    private static Object parse( Class<?> type, String value )
+    {
+        if( type == String.class )
+            return value;
+        if( type == boolean.class )
+        {
+            if( !value.equalsIgnoreCase( "true" ) && !value.equalsIgnoreCase( "false" ) )
+                throw new IllegalArgumentException( value );
+            return Boolean.valueOf( value );
+        }
+        if( type == int.class )
+            return Integer.valueOf( value );
+        if( type == long.class )
+            return Long.valueOf( value );
+        if( type == double.class )
+            return Double.valueOf( value );
+        if( type == String[].class )
+            return value.isEmpty() ? new String[0] : value.split( "\\s*,\\s*" );
+        if( type.isEnum() )
+            return Enum.valueOf( (Class<? extends Enum>)type, value.toUpperCase() );
+        throw new IllegalArgumentException( value );
+    }
+
+    private static String getDefaultFunctionScript()
+    {
+        try
+        {
+            return GrammarTools.getDefaultFunctionScript();
+        }
+        catch( NoSuchFieldException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static final String DEF_GRAMMAR_FILE = "grammar.pl";
+    private static final String DEF_DATASET_FILE = "sentences.arff";
+    private static final String DEF_XML_FILE     = "sentences.xml";
+    private static final String DEF_MODEL_FILE   = "classifier.model";
+}
@@ -0,0 +1,76 @@
+package grammartools.util;
+
+/**
+ * Per-thread time budget for processing a single item.
+ * The budget is started by the thread doing the work and checked cooperatively by the
+ * processing stages (and the parsers) so that an item that runs out of time stops promptly
+ * instead of running to completion after it has been abandoned.
+ * A thread that has been interrupted is always considered to be out of time.
+ */
+public final class Deadline
+{
+    /**
+     * Thrown by {@link #check()} when the current thread's budget is exhausted.
+     */
+    public static class ExceededException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public ExceededException()
+        {
+            super("time budget exceeded");
+        }
+    }
+    
+    private Deadline() {}
+    
+    /**
+     * Starts a time budget for the current thread.
+     * @param timeout budget in milliseconds, 0 is infinite
+     */
+    public static void begin(long timeout)
+    {
+        END.set(timeout > 0 ? System.currentTimeMillis() + timeout : 0L);
+    }
+    
+    /**
+     * Removes the time budget of the current thread.
+     */
+    public static void end()
+    {
+        END.remove();
+    }
+    
+    /**
+     * @return true if the current thread has been interrupted or its budget has passed
+     */
+    public static boolean isExpired()
+    {
+        final long end = END.get();
+        return Thread.currentThread().isInterrupted() || end > 0 && System.currentTimeMillis() >= end;
+    }
+    
+    /**
+     * @return milliseconds left in the current thread's budget, or Long.MAX_VALUE if there is no budget
+     */
+    public static long remaining()
+    {
+        final long end = END.get();
+        return end > 0 ? Math.max(0, end - System.currentTimeMillis()) : Long.MAX_VALUE;
+    }
+    
+    /**
+     * Stops the current computation if the current thread is out of time.
+     * @throws ExceededException if the current thread has been interrupted or its budget has passed
+     */
+    public static void check()
+    {
+        if(isExpired())
+            throw new ExceededException();
+    }
+    
+    private static final ThreadLocal<Long> END = new ThreadLocal<Long>() 
+    {
+        @Override protected Long initialValue() { return 0L; }
+    };
+}
@@ -0,0 +1,172 @@
+package grammartools.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of Penn Treebank labels, giving each label a dense integer id.
+ * The Penn Treebank tags and the parsers' root labels have fixed ids; any other label
+ * (e.g. a function-tagged phrase) is interned on first use, and keeps its id for the life of the process.
+ * Properties of the Penn Treebank tags (clause, phrase type, index among the word tags) are looked up by id.
+ */
+public final class PennTreebankTags
+{
+    private PennTreebankTags()
+    {
+    }
+    
+    /**
+     * Gets the id of a label, interning it if it is not yet known.
+     * @param label the label
+     * @return the id of the label
+     */
+    public static int getId(String label)
+    {
+        final Integer id = IDS.get(label);
+        return id != null ? id : intern(label);
+    }
+    
+    /**
+     * Finds the id of a label without interning it.
+     * @param label the label
+     * @return the id of the label, or -1 if it is not known
+     */
+    public static int find(String label)
+    {
+        final Integer id = label == null ? null : IDS.get(label);
+        return id != null ? id : -1;
+    }
+    
+    /**
+     * Gets the label with the given id.
+     * @param id the id of the label
+     * @return the label
+     */
+    public static String getLabel(int id)
+    {
+        return labels[id];
+    }
+    
+    /**
+     * Gets the number of labels known so far; ids range from 0 to this (exclusive).
+     * @return the number of labels
+     */
+    public static int size()
+    {
+        return labels.length;
+    }
+    
+    /**
+     * Determines if a label is a clause tag (S, SBAR, ...).
+     * @param id the id of the label
+     * @return whether the label is a clause tag
+     */
+    public static boolean isClause(int id)
+    {
+        return id >= 0 && id < CLAUSE.length && CLAUSE[id];
+    }
+    
+    public static boolean isClause(String label)
+    {
+        return isClause(find(label));
+    }
+    
+    /**
+     * Determines if a label is a noun phrase tag (NP, WHNP).
+     * @param id the id of the label
+     * @return whether the label is a noun phrase tag
+     */
+    public static boolean isNounPhrase(int id)
+    {
+        return id >= 0 && id < NOUN_PHRASE.length && NOUN_PHRASE[id];
+    }
+    
+    public static boolean isNounPhrase(String label)
+    {
+        return isNounPhrase(find(label));
+    }
+    
+    /**
+     * Determines if a label is a verb phrase tag (VP).
+     * @param id the id of the label
+     * @return whether the label is a verb phrase tag
+     */
+    public static boolean isVerbPhrase(int id)
+    {
+        return id >= 0 && id < VERB_PHRASE.length && VERB_PHRASE[id];
+    }
+    
+    public static boolean isVerbPhrase(String label)
+    {
+        return isVerbPhrase(find(label));
+    }
+    
+    /**
+     * Gets the index of a word (part-of-speech) tag in {@link grammartools.GrammarTools#PennTreebankWordTags},
+     * which is also its index in the nominal set of tag attributes.
+     * @param id the id of the label
+     * @return the index of the word tag, or -1 if the label is not a word tag
+     */
+    public static int getWordTagIndex(int id)
+    {
+        return id >= 0 && id < WORD_TAG_INDEXES.length ? WORD_TAG_INDEXES[id] : -1;
+    }
+    
+    public static int getWordTagIndex(String tag)
+    {
+        return getWordTagIndex(find(tag));
+    }
+    
+    private static synchronized int intern(String label)
+    {
+        Integer id = IDS.get(label);
+        if(id == null)
+        {
+            // copy on write, so readers never see a partly filled table
+            final String[] l = Arrays.copyOf(labels, labels.length + 1);
+            l[labels.length] = label;
+            id = labels.length;
+            labels = l;
+            IDS.put(label, id);
+        }
+        return id;
+    }
+    
+    private static final Map<String, Integer>   IDS     = new ConcurrentHashMap<String, Integer>();
+    private static volatile String[]            labels  = new String[0];
+    
+    // properties of the fixed ids; interned labels have none
+    private static final boolean[]  CLAUSE;
+    private static final boolean[]  NOUN_PHRASE;
+    private static final boolean[]  VERB_PHRASE;
+    private static final int[]      WORD_TAG_INDEXES;
+    
+    static
+    {
+        for(String tag : grammartools.GrammarTools.PennTreebankAllTags)
+            getId(tag);
+        for(String tag : grammartools.GrammarTools.PennTreebankWordTags)
+            getId(tag);
+        getId(grammartools.parser.OpenNLPParseTree.ROOT);
+        getId(grammartools.parser.StanfordParseTree.ROOT);
+        
+        final int n = labels.length;
+        CLAUSE = new boolean[n];
+        NOUN_PHRASE = new boolean[n];
+        VERB_PHRASE = new boolean[n];
+        WORD_TAG_INDEXES = new int[n];
+        Arrays.fill(WORD_TAG_INDEXES, -1);
+        
+        for(String tag : grammartools.GrammarTools.PennTreebankClauseTags)
+            CLAUSE[getId(tag)] = true;
+        for(String tag : grammartools.GrammarTools.PennTreebankNounPhraseTags)
+            NOUN_PHRASE[getId(tag)] = true;
+        for(String tag : grammartools.GrammarTools.PennTreebankVerbPhraseTags)
+            VERB_PHRASE[getId(tag)] = true;
+        
+        final String[] wordTags = grammartools.GrammarTools.PennTreebankWordTags;
+        for(int i = wordTags.length - 1; i >= 0; i--)
+            WORD_TAG_INDEXES[getId(wordTags[i])] = i;
+    }
+}
@@ -1,6 +1,7 @@
 package grammartools.util;
 
 import grammartools.parser.ParseTree;
+import grammartools.parser.ParseTreeCursor;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -240,27 +241,370 @@ public class SentenceInstance
 
     public SentenceInstance()
     {
-        // build the attribute list if not already
-        buildAttributeList();
-        
         // initialize attributes to unknown value
-        for(Field f : attributes)
-        {
-            try { f.setDouble(this, NOVALUE); }
-            catch(IllegalAccessException e){}
-        }
-        for(Field f : classes)
+        fromArray(Schema.MISSING);
+    }
+    
+    /**
+     * Creates a copy of an instance.
+     * @param si the instance to copy
+     */
+    public SentenceInstance(SentenceInstance si)
+    {
+        fromArray(si.toArray());
+    }
+    
+    /**
+     * Sets all attribute and class values to those of another instance.
+     * @param si the instance to copy values from
+     */
+    public void set(SentenceInstance si)
+    {
+        fromArray(si.toArray());
+    }
+    
+    /**
+     * Gets the attribute values followed by the class values, in the order of the columns of the Weka header.
+     * @return a new array of the values of this instance
+     */
+    public double[] toArray()
+    {
+        // generated in column order by Schema.generateAccessors(), checked against the attribute fields when the schema is built
+        return new double[]
         {
-            try { f.setDouble(this, NOVALUE); }
-            catch(IllegalAccessException e){}
-        }
+            avgDeltaTagPTagProb,
+            avgDeltaVerbChangeOpennlpParseProb,
+            avgDeltaVerbChangePTagProb,
+            avgDeltaVerbChangeStanfordParseProb,
+            avgDeltaVerbChangeTagProb,
+            avgDeltaVerbChangeTagSeqProb,
+            avgVerbChangeImproveRatio,
+            avgVerbChangeOpennlpParseImprove,
+            avgVerbChangePTagImprove,
+            avgVerbChangeStanfordParseImprove,
+            avgVerbChangeTagImprove,
+            avgVerbChangeTagSeqImprove,
+            deltaMaxPTagProb,
+            deltaMaxTagProb,
+            deltaMinChangeOpennlpParseProb,
+            deltaMinChangeStanfordParseProb,
+            deltaMinChangeTagSeqProb,
+            deltaMinPTagProb,
+            deltaMinTagProb,
+            deltaTagSeqProb,
+            firstPTag,
+            firstPTagProb,
+            firstTag,
+            firstTagProb,
+            funcValue,
+            isDCGParsable,
+            isFirstTagMismatch,
+            isMaxTagMismatch,
+            isMinTagMismatch,
+            isOpennlpClause,
+            isStanfordClause,
+            maxDeltaTagPTagProb,
+            maxDeltaVerbChangeOpennlpParseProb,
+            maxDeltaVerbChangePTagProb,
+            maxDeltaVerbChangeStanfordParseProb,
+            maxDeltaVerbChangeTagProb,
+            maxDeltaVerbChangeTagSeqProb,
+            maxPTag,
+            maxPTagProb,
+            maxTag,
+            maxTagProb,
+            maxVerbChangeImproveRatio,
+            minDeltaTagPTagProb,
+            minDeltaVerbChangeOpennlpParseProb,
+            minDeltaVerbChangePTagProb,
+            minDeltaVerbChangeStanfordParseProb,
+            minDeltaVerbChangeTagProb,
+            minDeltaVerbChangeTagSeqProb,
+            minPTag,
+            minPTagProb,
+            minTag,
+            minTagProb,
+            minVerbChangeImproveRatio,
+            nTokens,
+            nVerbs,
+            opennlpDeltaParseProb,
+            opennlpDeltaParseProbOmitMin,
+            opennlpDeltaParseProbOmitMinLeft,
+            opennlpDeltaParseProbOmitMinRight,
+            opennlpDeltaParseProbSwapMinLeft,
+            opennlpDeltaParseProbSwapMinRight,
+            opennlpParseProb,
+            opennlpStanfordCrossDeltaParseProb,
+            opennlpStanfordCrossPTagMismatchRatio,
+            opennlpStanfordCrossPTagMismatchTotal,
+            opennlpStanfordCrossParseMismatchRatio,
+            opennlpStanfordCrossParseMismatchTotal,
+            opennlpStanfordCrossTagMismatchRatio,
+            opennlpStanfordCrossTagMismatchTotal,
+            opennlpTagMismatchRatio,
+            opennlpTagMismatchTotal,
+            rangePTagProb,
+            rangeTagProb,
+            s_avgDeltaMinChangeOpennlpParseProb,
+            s_avgDeltaMinChangeStanfordParseProb,
+            s_avgDeltaMinChangeTagSeqProb,
+            s_avgDeltaVerbChangeOpennlpParseProb,
+            s_avgDeltaVerbChangePTagProb,
+            s_avgDeltaVerbChangeStanfordParseProb,
+            s_avgDeltaVerbChangeTagProb,
+            s_avgDeltaVerbChangeTagSeqProb,
+            s_avgOpennlpParseProb,
+            s_avgStanfordParseProb,
+            s_avgVerbChangeImproveRatio,
+            s_avgVerbChangeOpennlpParseImprove,
+            s_avgVerbChangePTagImprove,
+            s_avgVerbChangeStanfordParseImprove,
+            s_avgVerbChangeTagImprove,
+            s_avgVerbChangeTagSeqImprove,
+            s_maxDeltaMinChangeOpennlpParseProb,
+            s_maxDeltaMinChangeStanfordParseProb,
+            s_maxDeltaMinChangeTagSeqProb,
+            s_maxDeltaVerbChangeOpennlpParseProb,
+            s_maxDeltaVerbChangePTagProb,
+            s_maxDeltaVerbChangeStanfordParseProb,
+            s_maxDeltaVerbChangeTagProb,
+            s_maxDeltaVerbChangeTagSeqProb,
+            s_maxOpennlpParseProb,
+            s_maxStanfordParseProb,
+            s_maxVerbChangeImproveRatio,
+            s_minDeltaMinChangeOpennlpParseProb,
+            s_minDeltaMinChangeStanfordParseProb,
+            s_minDeltaMinChangeTagSeqProb,
+            s_minDeltaVerbChangeOpennlpParseProb,
+            s_minDeltaVerbChangePTagProb,
+            s_minDeltaVerbChangeStanfordParseProb,
+            s_minDeltaVerbChangeTagProb,
+            s_minDeltaVerbChangeTagSeqProb,
+            s_minOpennlpParseProb,
+            s_minStanfordParseProb,
+            s_minVerbChangeImproveRatio,
+            s_nClauses,
+            s_totDeltaMinChangeOpennlpParseProb,
+            s_totDeltaMinChangeStanfordParseProb,
+            s_totDeltaMinChangeTagSeqProb,
+            s_totDeltaVerbChangeOpennlpParseProb,
+            s_totDeltaVerbChangePTagProb,
+            s_totDeltaVerbChangeStanfordParseProb,
+            s_totDeltaVerbChangeTagProb,
+            s_totDeltaVerbChangeTagSeqProb,
+            s_totOpennlpParseProb,
+            s_totStanfordParseProb,
+            s_totVerbChangeImproveRatio,
+            s_totVerbChangeOpennlpParseImprove,
+            s_totVerbChangePTagImprove,
+            s_totVerbChangeStanfordParseImprove,
+            s_totVerbChangeTagImprove,
+            s_totVerbChangeTagSeqImprove,
+            stanfordDeltaParseProb,
+            stanfordDeltaParseProbOmitMin,
+            stanfordDeltaParseProbOmitMinLeft,
+            stanfordDeltaParseProbOmitMinRight,
+            stanfordDeltaParseProbSwapMinLeft,
+            stanfordDeltaParseProbSwapMinRight,
+            stanfordParseProb,
+            stanfordTagMismatchRatio,
+            stanfordTagMismatchTotal,
+            tagSeqProb,
+            totDeltaTagPTagProb,
+            totDeltaVerbChangeOpennlpParseProb,
+            totDeltaVerbChangePTagProb,
+            totDeltaVerbChangeStanfordParseProb,
+            totDeltaVerbChangeTagProb,
+            totDeltaVerbChangeTagSeqProb,
+            totVerbChangeImproveRatio,
+            totVerbChangeOpennlpParseImprove,
+            totVerbChangePTagImprove,
+            totVerbChangeStanfordParseImprove,
+            totVerbChangeTagImprove,
+            totVerbChangeTagSeqImprove,
+            // class attributes
+            isGrammatical,
+            nGrammaticalErrors,
+        };
+    }
+    
+    private void fromArray(double[] v)
+    {
+        // generated in column order by Schema.generateAccessors(), checked against the attribute fields when the schema is built
+        int i = 0;
+        avgDeltaTagPTagProb = v[i++];
+        avgDeltaVerbChangeOpennlpParseProb = v[i++];
+        avgDeltaVerbChangePTagProb = v[i++];
+        avgDeltaVerbChangeStanfordParseProb = v[i++];
+        avgDeltaVerbChangeTagProb = v[i++];
+        avgDeltaVerbChangeTagSeqProb = v[i++];
+        avgVerbChangeImproveRatio = v[i++];
+        avgVerbChangeOpennlpParseImprove = v[i++];
+        avgVerbChangePTagImprove = v[i++];
+        avgVerbChangeStanfordParseImprove = v[i++];
+        avgVerbChangeTagImprove = v[i++];
+        avgVerbChangeTagSeqImprove = v[i++];
+        deltaMaxPTagProb = v[i++];
+        deltaMaxTagProb = v[i++];
+        deltaMinChangeOpennlpParseProb = v[i++];
+        deltaMinChangeStanfordParseProb = v[i++];
+        deltaMinChangeTagSeqProb = v[i++];
+        deltaMinPTagProb = v[i++];
+        deltaMinTagProb = v[i++];
+        deltaTagSeqProb = v[i++];
+        firstPTag = v[i++];
+        firstPTagProb = v[i++];
+        firstTag = v[i++];
+        firstTagProb = v[i++];
+        funcValue = v[i++];
+        isDCGParsable = v[i++];
+        isFirstTagMismatch = v[i++];
+        isMaxTagMismatch = v[i++];
+        isMinTagMismatch = v[i++];
+        isOpennlpClause = v[i++];
+        isStanfordClause = v[i++];
+        maxDeltaTagPTagProb = v[i++];
+        maxDeltaVerbChangeOpennlpParseProb = v[i++];
+        maxDeltaVerbChangePTagProb = v[i++];
+        maxDeltaVerbChangeStanfordParseProb = v[i++];
+        maxDeltaVerbChangeTagProb = v[i++];
+        maxDeltaVerbChangeTagSeqProb = v[i++];
+        maxPTag = v[i++];
+        maxPTagProb = v[i++];
+        maxTag = v[i++];
+        maxTagProb = v[i++];
+        maxVerbChangeImproveRatio = v[i++];
+        minDeltaTagPTagProb = v[i++];
+        minDeltaVerbChangeOpennlpParseProb = v[i++];
+        minDeltaVerbChangePTagProb = v[i++];
+        minDeltaVerbChangeStanfordParseProb = v[i++];
+        minDeltaVerbChangeTagProb = v[i++];
+        minDeltaVerbChangeTagSeqProb = v[i++];
+        minPTag = v[i++];
+        minPTagProb = v[i++];
+        minTag = v[i++];
+        minTagProb = v[i++];
+        minVerbChangeImproveRatio = v[i++];
+        nTokens = v[i++];
+        nVerbs = v[i++];
+        opennlpDeltaParseProb = v[i++];
+        opennlpDeltaParseProbOmitMin = v[i++];
+        opennlpDeltaParseProbOmitMinLeft = v[i++];
+        opennlpDeltaParseProbOmitMinRight = v[i++];
+        opennlpDeltaParseProbSwapMinLeft = v[i++];
+        opennlpDeltaParseProbSwapMinRight = v[i++];
+        opennlpParseProb = v[i++];
+        opennlpStanfordCrossDeltaParseProb = v[i++];
+        opennlpStanfordCrossPTagMismatchRatio = v[i++];
+        opennlpStanfordCrossPTagMismatchTotal = v[i++];
+        opennlpStanfordCrossParseMismatchRatio = v[i++];
+        opennlpStanfordCrossParseMismatchTotal = v[i++];
+        opennlpStanfordCrossTagMismatchRatio = v[i++];
+        opennlpStanfordCrossTagMismatchTotal = v[i++];
+        opennlpTagMismatchRatio = v[i++];
+        opennlpTagMismatchTotal = v[i++];
+        rangePTagProb = v[i++];
+        rangeTagProb = v[i++];
+        s_avgDeltaMinChangeOpennlpParseProb = v[i++];
+        s_avgDeltaMinChangeStanfordParseProb = v[i++];
+        s_avgDeltaMinChangeTagSeqProb = v[i++];
+        s_avgDeltaVerbChangeOpennlpParseProb = v[i++];
+        s_avgDeltaVerbChangePTagProb = v[i++];
+        s_avgDeltaVerbChangeStanfordParseProb = v[i++];
+        s_avgDeltaVerbChangeTagProb = v[i++];
+        s_avgDeltaVerbChangeTagSeqProb = v[i++];
+        s_avgOpennlpParseProb = v[i++];
+        s_avgStanfordParseProb = v[i++];
+        s_avgVerbChangeImproveRatio = v[i++];
+        s_avgVerbChangeOpennlpParseImprove = v[i++];
+        s_avgVerbChangePTagImprove = v[i++];
+        s_avgVerbChangeStanfordParseImprove = v[i++];
+        s_avgVerbChangeTagImprove = v[i++];
+        s_avgVerbChangeTagSeqImprove = v[i++];
+        s_maxDeltaMinChangeOpennlpParseProb = v[i++];
+        s_maxDeltaMinChangeStanfordParseProb = v[i++];
+        s_maxDeltaMinChangeTagSeqProb = v[i++];
+        s_maxDeltaVerbChangeOpennlpParseProb = v[i++];
+        s_maxDeltaVerbChangePTagProb = v[i++];
+        s_maxDeltaVerbChangeStanfordParseProb = v[i++];
+        s_maxDeltaVerbChangeTagProb = v[i++];
+        s_maxDeltaVerbChangeTagSeqProb = v[i++];
+        s_maxOpennlpParseProb = v[i++];
+        s_maxStanfordParseProb = v[i++];
+        s_maxVerbChangeImproveRatio = v[i++];
+        s_minDeltaMinChangeOpennlpParseProb = v[i++];
+        s_minDeltaMinChangeStanfordParseProb = v[i++];
+        s_minDeltaMinChangeTagSeqProb = v[i++];
+        s_minDeltaVerbChangeOpennlpParseProb = v[i++];
+        s_minDeltaVerbChangePTagProb = v[i++];
+        s_minDeltaVerbChangeStanfordParseProb = v[i++];
+        s_minDeltaVerbChangeTagProb = v[i++];
+        s_minDeltaVerbChangeTagSeqProb = v[i++];
+        s_minOpennlpParseProb = v[i++];
+        s_minStanfordParseProb = v[i++];
+        s_minVerbChangeImproveRatio = v[i++];
+        s_nClauses = v[i++];
+        s_totDeltaMinChangeOpennlpParseProb = v[i++];
+        s_totDeltaMinChangeStanfordParseProb = v[i++];
+        s_totDeltaMinChangeTagSeqProb = v[i++];
+        s_totDeltaVerbChangeOpennlpParseProb = v[i++];
+        s_totDeltaVerbChangePTagProb = v[i++];
+        s_totDeltaVerbChangeStanfordParseProb = v[i++];
+        s_totDeltaVerbChangeTagProb = v[i++];
+        s_totDeltaVerbChangeTagSeqProb = v[i++];
+        s_totOpennlpParseProb = v[i++];
+        s_totStanfordParseProb = v[i++];
+        s_totVerbChangeImproveRatio = v[i++];
+        s_totVerbChangeOpennlpParseImprove = v[i++];
+        s_totVerbChangePTagImprove = v[i++];
+        s_totVerbChangeStanfordParseImprove = v[i++];
+        s_totVerbChangeTagImprove = v[i++];
+        s_totVerbChangeTagSeqImprove = v[i++];
+        stanfordDeltaParseProb = v[i++];
+        stanfordDeltaParseProbOmitMin = v[i++];
+        stanfordDeltaParseProbOmitMinLeft = v[i++];
+        stanfordDeltaParseProbOmitMinRight = v[i++];
+        stanfordDeltaParseProbSwapMinLeft = v[i++];
+        stanfordDeltaParseProbSwapMinRight = v[i++];
+        stanfordParseProb = v[i++];
+        stanfordTagMismatchRatio = v[i++];
+        stanfordTagMismatchTotal = v[i++];
+        tagSeqProb = v[i++];
+        totDeltaTagPTagProb = v[i++];
+        totDeltaVerbChangeOpennlpParseProb = v[i++];
+        totDeltaVerbChangePTagProb = v[i++];
+        totDeltaVerbChangeStanfordParseProb = v[i++];
+        totDeltaVerbChangeTagProb = v[i++];
+        totDeltaVerbChangeTagSeqProb = v[i++];
+        totVerbChangeImproveRatio = v[i++];
+        totVerbChangeOpennlpParseImprove = v[i++];
+        totVerbChangePTagImprove = v[i++];
+        totVerbChangeStanfordParseImprove = v[i++];
+        totVerbChangeTagImprove = v[i++];
+        totVerbChangeTagSeqImprove = v[i++];
+        // class attributes
+        isGrammatical = v[i++];
+        nGrammaticalErrors = v[i++];
     }
     
-    private static void buildAttributeList()
+    /**
+     * Column layout of the attributes, built once from the attribute fields.
+     * Columns hold the attributes followed by the class attributes, each ordered by index then name.
+     */
+    private static final class Schema
     {
-        // build attribute & class collection, if not built already
-        if(attributes.isEmpty() && classes.isEmpty())
+        static final Field[]            FIELDS;         // the attribute field of each column
+        static final String[]           NAMES;
+        static final Attribute.Type[]   TYPES;
+        static final boolean[]          IS_CLASS;
+        static final int                N_ATTRIBUTES;   // number of leading non-class columns
+        static final int[]              PROB_COLUMNS;   // column of the probability of a tag column, or -1
+        static final double[]           MISSING;        // all values unknown
+        
+        static
         {
+            final SortedSet<Field> attributes = new java.util.TreeSet<Field>(AttributeComparator);
+            final SortedSet<Field> classes    = new java.util.TreeSet<Field>(AttributeComparator);
             for(Field f : SentenceInstance.class.getFields())
             {
                 Attribute a = f.getAnnotation(Attribute.class);
@@ -269,7 +613,77 @@ public class SentenceInstance
                     (a.isClass() ? classes : attributes).add(f);
                 }
             }
-        }        
+            
+            final List<Field> fields = new java.util.ArrayList<Field>(attributes);
+            fields.addAll(classes);
+            
+            final int n = fields.size();
+            FIELDS = fields.toArray(new Field[n]);
+            NAMES = new String[n];
+            TYPES = new Attribute.Type[n];
+            IS_CLASS = new boolean[n];
+            PROB_COLUMNS = new int[n];
+            N_ATTRIBUTES = attributes.size();
+            MISSING = new double[n];
+            Arrays.fill(MISSING, NOVALUE);
+            
+            final List<String> names = new java.util.ArrayList<String>(n);
+            for(Field f : fields)
+                names.add(f.getName());
+            
+            for(int i = 0; i < n; i++)
+            {
+                final Attribute a = fields.get(i).getAnnotation(Attribute.class);
+                NAMES[i] = a.name().isEmpty() ? fields.get(i).getName() : a.name();
+                TYPES[i] = a.type();
+                IS_CLASS[i] = a.isClass();
+                PROB_COLUMNS[i] = a.type() == Attribute.Type.TAG ? names.indexOf(fields.get(i).getName() + "Prob") : -1;
+            }
+            
+            // make sure the generated accessors match the fields, once, so that rows need no reflection
+            try
+            {
+                final SentenceInstance si = new SentenceInstance();
+                for(int i = 0; i < n; i++)
+                    FIELDS[i].setDouble(si, i);
+                
+                final double[] v = si.toArray();
+                final SentenceInstance copy = new SentenceInstance();
+                copy.fromArray(v);
+                for(int i = 0; i < n; i++)
+                {
+                    if(v.length != n || v[i] != i || FIELDS[i].getDouble(copy) != i)
+                    {
+                        throw new IllegalStateException("SentenceInstance accessors do not match attribute " + NAMES[i] 
+                                + ", regenerate them:\n" + generateAccessors());
+                    }
+                }
+            }
+            catch(IllegalAccessException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        /**
+         * @return the source of toArray() and fromArray() for the attribute fields, in column order
+         */
+        static String generateAccessors()
+        {
+            final StringBuilder toArray = new StringBuilder();
+            final StringBuilder fromArray = new StringBuilder();
+            for(int i = 0; i < FIELDS.length; i++)
+            {
+                if(i == N_ATTRIBUTES)
+                {
+                    toArray.append("            // class attributes\n");
+                    fromArray.append("        // class attributes\n");
+                }
+                toArray.append("            ").append(FIELDS[i].getName()).append(",\n");
+                fromArray.append("        ").append(FIELDS[i].getName()).append(" = v[i++];\n");
+            }
+            return "toArray():\n" + toArray + "fromArray():\n" + fromArray;
+        }
     }
     
     /**
@@ -280,85 +694,159 @@ public class SentenceInstance
      */
     public weka.core.Instance toWekaInstance(boolean useBinaryClass, boolean useNumericClass)
     {       
-        int i = 0;
-        double[] values = new double[attributes.size() + classes.size()];
+        final double[] v = toArray();
         
-        for(Field f : attributes)
+        int n = Schema.N_ATTRIBUTES;
+        for(int c = Schema.N_ATTRIBUTES; c < v.length; c++)
         {
-            try { values[i++] = f.getDouble(this); }
-            catch(IllegalAccessException e){}
-        }        
+            if(isIncludedClass(c, useBinaryClass, useNumericClass))
+                n++;
+        }
+        
+        final double[] values = new double[n];
+        int i = Schema.N_ATTRIBUTES;
+        System.arraycopy(v, 0, values, 0, i);
         
-        for(Field f : classes)
+        for(int c = Schema.N_ATTRIBUTES; c < v.length; c++)
         {
-            Attribute a = f.getAnnotation(Attribute.class);
-            if(useNumericClass && a != null && a.type() == Attribute.Type.NUMERIC)
-            {
-                try { values[i++] = f.getDouble(this); }
-                catch(IllegalAccessException e){}
-            }
-            if(useBinaryClass && a != null && a.type() == Attribute.Type.BOOL)
-            {
-                try { values[i++] = f.getDouble(this); }
-                catch(IllegalAccessException e){}
-            }
+            if(isIncludedClass(c, useBinaryClass, useNumericClass))
+                values[i++] = v[c];
         }
         
-        return new weka.core.DenseInstance(1.0, Arrays.copyOf(values, i));
+        return new weka.core.DenseInstance(1.0, values);
+    }
+    
+    private static boolean isIncludedClass(int column, boolean useBinaryClass, boolean useNumericClass)
+    {
+        return useNumericClass && Schema.TYPES[column] == Attribute.Type.NUMERIC
+            || useBinaryClass && Schema.TYPES[column] == Attribute.Type.BOOL;
     }
     
     /**
      * Converts the SentenceInstance into a Weka Instance suitable for use with Weka APIs.
+     * When converting many instances against the same header, bind a {@link WekaConverter} once instead.
      * @param header weka header specifying dataset format
      * @return a weka instance representing this SentenceInstance's attribute and class values
      */
     public weka.core.Instance toWekaInstance(weka.core.Instances header)
     {       
-        int i = 0;
-        final double[] values = new double[header.numAttributes()];
-        Arrays.fill(values, NOVALUE);
-        
-        for(Field f : attributes)
+        return new WekaConverter(header).toWekaInstance(this);
+    }
+    
+    /**
+     * Converts SentenceInstances into Weka Instances of a fixed header.
+     * The mapping of attributes to header columns is resolved once, by name, when the converter is created.
+     * Attributes the header does not have (e.g. an older ARFF file being appended to) are dropped,
+     * header columns that are not attributes are left unknown,
+     * and nominal values are translated to the header's own value order.
+     */
+    public static class WekaConverter
+    {
+        /**
+         * Binds a converter to a header.
+         * @param header weka header specifying dataset format
+         */
+        public WekaConverter(weka.core.Instances header)
         {
-            Attribute a = f.getAnnotation(Attribute.class);
-            if(a != null)
+            this.header = header;
+            
+            final List<Integer> sources = new java.util.ArrayList<Integer>();
+            final List<Integer> targets = new java.util.ArrayList<Integer>();
+            final List<int[]> maps = new java.util.ArrayList<int[]>();
+            
+            for(int c = 0; c < Schema.NAMES.length; c++)
             {
-                String name = a.name().isEmpty() ? f.getName() : a.name();
-                weka.core.Attribute att = header.attribute(name);
-                if(att != null && att.index() > 0)
+                final weka.core.Attribute att = header.attribute(Schema.NAMES[c]);
+                if(att == null)
                 {
-                    try { values[att.index()] = f.getDouble(this); }
-                    catch(IllegalAccessException e){}
-                }
-                else if(i < values.length)
-                {
-                    try { values[i++] = f.getDouble(this); }
-                    catch(IllegalAccessException e){}
+                    // class columns are left out of a header by choice, they are not dropped attributes
+                    if(!Schema.IS_CLASS[c])
+                        unmapped.add(Schema.NAMES[c]);
+                    continue;
                 }
+                
+                sources.add(c);
+                targets.add(att.index());
+                maps.add(att.isNominal() ? createNominalMap(Schema.TYPES[c], att) : null);
             }
-        }        
+            
+            final int n = sources.size();
+            this.sources = new int[n];
+            this.targets = new int[n];
+            this.nominalMaps = new int[n][];
+            for(int i = 0; i < n; i++)
+            {
+                this.sources[i] = sources.get(i);
+                this.targets[i] = targets.get(i);
+                this.nominalMaps[i] = maps.get(i);
+            }
+        }
+        
+        private static int[] createNominalMap(Attribute.Type type, weka.core.Attribute att)
+        {
+            final List<String> values = type == Attribute.Type.BOOL ? NOMBOOLS : type == Attribute.Type.TAG ? NOMWORDTAGS : null;
+            if(values == null)
+                return null;
+            
+            final int[] map = new int[values.size()];
+            for(int k = 0; k < map.length; k++)
+                map[k] = att.indexOfValue(values.get(k));
+            return map;
+        }
         
-        for(Field f : classes)
+        /**
+         * Converts a SentenceInstance into a Weka Instance of this converter's header.
+         * The row is read through the generated array accessor and mapped with the precomputed column tables,
+         * so a conversion touches only primitives: no reflection and no lookups by name.
+         * @param si the instance to convert
+         * @return a weka instance representing the SentenceInstance's attribute and class values
+         */
+        public weka.core.Instance toWekaInstance(SentenceInstance si)
         {
-            Attribute a = f.getAnnotation(Attribute.class);
-            if(a != null)
+            final double[] v = si.toArray();
+            final double[] values = new double[header.numAttributes()];
+            if(sources.length < values.length)
+                Arrays.fill(values, NOVALUE);
+            
+            for(int i = 0; i < sources.length; i++)
             {
-                String name = a.name().isEmpty() ? f.getName() : a.name();
-                weka.core.Attribute att = header.attribute(name);
-                if(att != null && att.index() > 0)
-                {
-                    try { values[att.index()] = f.getDouble(this); }
-                    catch(IllegalAccessException e){}
-                }
-                else if(i < values.length)
+                double d = v[sources[i]];
+                final int[] map = nominalMaps[i];
+                if(map != null && hasValue(d))
                 {
-                    try { values[i++] = f.getDouble(this); }
-                    catch(IllegalAccessException e){}
+                    final int k = (int)d;
+                    d = k >= 0 && k < map.length && map[k] >= 0 ? map[k] : NOVALUE;
                 }
+                values[targets[i]] = d;
             }
+            
+            return new weka.core.DenseInstance(1.0, values);
         }
         
-        return new weka.core.DenseInstance(1.0, values);
+        /**
+         * Gets the header this converter is bound to.
+         * @return the weka header
+         */
+        public weka.core.Instances getHeader()
+        {
+            return header;
+        }
+        
+        /**
+         * Gets the names of the attributes that are not in the header, and so are dropped on conversion.
+         * Class attributes are not included.
+         * @return list of attribute names missing from the header
+         */
+        public List<String> getUnmappedAttributes()
+        {
+            return java.util.Collections.unmodifiableList(unmapped);
+        }
+        
+        private final weka.core.Instances   header;
+        private final int[]                 sources;        // schema column of each mapped attribute
+        private final int[]                 targets;        // header column of each mapped attribute
+        private final int[][]               nominalMaps;    // schema nominal index to header nominal index, or null
+        private final List<String>          unmapped = new java.util.ArrayList<String>();
     }
 
     /**
@@ -369,51 +857,25 @@ public class SentenceInstance
      */
     public static weka.core.Instances createWekaHeader(boolean useBinaryGrammaticalAttrib, boolean useNumericGrammaticalAttrib)
     {
-        buildAttributeList();
-        
         final java.util.ArrayList<weka.core.Attribute> atts = new java.util.ArrayList<weka.core.Attribute>();
         
-        for(Field f : attributes)
+        for(int c = 0; c < Schema.NAMES.length; c++)
         {
-            Attribute a = f.getAnnotation(Attribute.class);
-            if(a != null)
+            final String name = Schema.NAMES[c];
+            final boolean isClass = Schema.IS_CLASS[c];
+            switch(Schema.TYPES[c])
             {
-                String name = a.name().isEmpty() ? f.getName() : a.name();
-                switch(a.type())
-                {
-                    case NUMERIC:
+                case NUMERIC:
+                    if(!isClass || useNumericGrammaticalAttrib)
                         atts.add(new weka.core.Attribute(name));
-                        break;
-                    case BOOL:
+                    break;
+                case BOOL:
+                    if(!isClass || useBinaryGrammaticalAttrib)
                         atts.add(new weka.core.Attribute(name, NOMBOOLS));
-                        break;
-                    case TAG:
-                        atts.add(new weka.core.Attribute(name, NOMWORDTAGS));
-                        break;
-                }
-            }
-        }
-            
-        for(Field f : classes)
-        {
-            Attribute a = f.getAnnotation(Attribute.class);
-            if(a != null)
-            {
-                String name = a.name().isEmpty() ? f.getName() : a.name();
-                switch(a.type())
-                {
-                    case NUMERIC:
-                        if(useNumericGrammaticalAttrib)
-                            atts.add(new weka.core.Attribute(name));
-                        break;
-                    case BOOL:
-                        if(useBinaryGrammaticalAttrib)
-                            atts.add(new weka.core.Attribute(name, NOMBOOLS));
-                        break;
-                    case TAG:
-                        atts.add(new weka.core.Attribute(name, NOMWORDTAGS));
-                        break;
-                }
+                    break;
+                case TAG:
+                    atts.add(new weka.core.Attribute(name, NOMWORDTAGS));
+                    break;
             }
         }
                
@@ -429,56 +891,36 @@ public class SentenceInstance
      */
     public java.util.Map<String, Object> getAttributes()
     {
-        final java.util.Map<String, Object> m = new java.util.HashMap<String, Object>(attributes.size());
+        final double[] v = toArray();
+        final java.util.Map<String, Object> m = new java.util.HashMap<String, Object>(Schema.N_ATTRIBUTES * 4 / 3 + 1);
         
-        for(Field f : attributes)
+        for(int c = 0; c < Schema.N_ATTRIBUTES; c++)
         {           
-            Attribute a = f.getAnnotation(Attribute.class);
-            if(a != null)
-            {
-                try
-                {
-                    Object v = null;
-                    double d = f.getDouble(this);
-                    switch(a.type())
-                    {
-                        case NUMERIC:
-                            v = d;
-                            break;
-                        case BOOL:
-                            v = fromBoolNominalIndex(d);
-                            break;
-                        case TAG:
-                            v = fromTagNominalIndex(d);
-                            break;
-                    }
-                    String name = a.name().isEmpty() ? f.getName() : a.name();
-                    m.put(name, v);
-                }
-                catch (IllegalArgumentException ex) {}
-                catch (IllegalAccessException ex) {}
-            }
+            m.put(Schema.NAMES[c], toValue(Schema.TYPES[c], v[c]));
         }        
         return m;
     }
     
-/**
+    private static Object toValue(Attribute.Type type, double d)
+    {
+        switch(type)
+        {
+            case BOOL:
+                return fromBoolNominalIndex(d);
+            case TAG:
+                return fromTagNominalIndex(d);
+            default:
+                return d;
+        }
+    }
+    
+    /**
      * Get all attribute names (excluding class attributes).
      * @return array of attribute names not including class attributes.
      */
     public static List<String> getAttributeNames()
     {
-        buildAttributeList();
-        
-        List<String> names = new LinkedList<String>();
-        for(Field f : attributes)
-        {
-            Attribute a = f.getAnnotation(Attribute.class);
-            if(a != null)
-                names.add(a.name().isEmpty() ? f.getName() : a.name());
-        }
-        
-        return names;
+        return new LinkedList<String>(Arrays.asList(Schema.NAMES).subList(0, Schema.N_ATTRIBUTES));
     }
      
     /**
@@ -511,6 +953,88 @@ public class SentenceInstance
         return hasValue(v1) ? Math.min(v1, v2) : v2;
     }
     
+    /**
+     * Combines the instances of the segments of a long sentence into a single instance.
+     * min/max attributes take the min/max over the segments, totals, counts and log probabilities are summed,
+     * mismatch flags are set if any segment mismatches, other flags only if all segments agree,
+     * first tags come from the first segment, min/max tags from the segment with the min/max probability,
+     * and all remaining attributes are averaged. Class attributes are left unknown.
+     * @param segments instances of the sentence segments, in sentence order
+     * @return the aggregated instance
+     */
+    public static SentenceInstance aggregate(List<SentenceInstance> segments)
+    {
+        final SentenceInstance si = new SentenceInstance();
+        if(segments.isEmpty())
+            return si;
+        
+        final double[][] values = new double[segments.size()][];
+        for(int k = 0; k < values.length; k++)
+            values[k] = segments.get(k).toArray();
+        
+        final double[] v = si.toArray();
+        for(int c = 0; c < Schema.N_ATTRIBUTES; c++)
+        {
+            final String name = Schema.NAMES[c];
+            
+            if(Schema.TYPES[c] == Attribute.Type.TAG)
+            {
+                // first tag comes from the first segment, min/max tags follow their probability
+                final int prob = Schema.PROB_COLUMNS[c];
+                final boolean isMin = name.startsWith("min");
+                final boolean isMax = name.startsWith("max");
+                double p = NOVALUE;
+                for(double[] s : values)
+                {
+                    if(prob < 0 || !hasValue(s[c]) || !hasValue(s[prob]))
+                        continue;
+                    if(!hasValue(p) || isMin && s[prob] < p || isMax && s[prob] > p)
+                    {
+                        p = s[prob];
+                        v[c] = s[c];
+                    }
+                    if(!isMin && !isMax)
+                        break;
+                }
+            }
+            else if(Schema.TYPES[c] == Attribute.Type.BOOL)
+            {
+                // mismatches are reported if any segment mismatches, everything else must hold for all segments
+                final boolean isAny = name.endsWith("Mismatch");
+                Boolean b = null;
+                for(double[] s : values)
+                {
+                    if(hasValue(s[c]))
+                        b = b == null ? fromBoolNominalIndex(s[c]) : 
+                            isAny ? b || fromBoolNominalIndex(s[c]) : b && fromBoolNominalIndex(s[c]);
+                }
+                if(b != null)
+                    v[c] = toBoolNominalIndex(b);
+            }
+            else
+            {
+                final String stem = name.startsWith("s_") ? name.substring(2) : name;
+                final boolean isMin = stem.startsWith("min");
+                final boolean isMax = stem.startsWith("max");
+                final boolean isSum = stem.startsWith("tot") || stem.matches("n[A-Z].*") || SUMMED.contains(name);
+                int n = 0;
+                for(double[] s : values)
+                {
+                    final double d = s[c];
+                    if(!hasValue(d))
+                        continue;
+                    v[c] = isMin ? minOrValue(v[c], d) : isMax ? maxOrValue(v[c], d) : hasValue(v[c]) ? v[c] + d : d;
+                    n++;
+                }
+                if(n > 0 && !isMin && !isMax && !isSum)
+                    v[c] /= n;
+            }
+        }
+        
+        si.fromArray(v);
+        return si;
+    }
+    
     /**
      * Calculates and stores the number of disagreements in constituents between two trees.
      * @param p1
@@ -525,25 +1049,42 @@ public class SentenceInstance
     
     private static int[] getParseTreeMismatches(ParseTree p1, ParseTree p2)
     {
-        int[] c = 
+        // walk both trees in step, comparing children pairwise up to the shorter child list
+        final ParseTreeCursor c1 = p1.cursor(), c2 = p2.cursor();
+        final int[] c = 
         { 
             // mismatched comparisons
-            (p1.isRoot() && p2.isRoot() || p1.getValue().equals(p2.getValue())) ? 0 : 1,
+            0,
             // total comparisons
-            1
+            0
         };
-        if(p1.getNumChildren() > 0 && p2.getNumChildren() > 0)
+        
+        while(true)
         {
-            ParseTree[] p1Children = p1.getChildren();
-            ParseTree[] p2Children = p2.getChildren();
-            for(int i = 0; i < p1Children.length && i < p2Children.length; i++)
+            c[0] += (c1.isRoot() && c2.isRoot() || c1.getValue().equals(c2.getValue())) ? 0 : 1;
+            c[1]++;
+            
+            if(c1.getNumChildren() > 0 && c2.getNumChildren() > 0)
             {
-                int[] r = getParseTreeMismatches(p1Children[i], p2Children[i]);
-                c[0] += r[0];
-                c[1] += r[1];
+                c1.toFirstChild();
+                c2.toFirstChild();
+                continue;
+            }
+            
+            // move both to the next pair of siblings, backing up until one exists in both trees
+            while(true)
+            {
+                if(c1.getDepth() == 0)
+                    return c;
+                if(c1.toNextSibling())
+                {
+                    if(c2.toNextSibling())
+                        break;
+                }
+                c1.toParent();
+                c2.toParent();
             }
         }
-        return c;
     }
     
     /**
@@ -563,7 +1104,7 @@ public class SentenceInstance
      */
     public static double toTagNominalIndex(String tag)
     {
-        int i = NOMWORDTAGS.indexOf(tag);
+        int i = PennTreebankTags.getWordTagIndex(tag);
         return i == -1 ? NOVALUE : i;
     }
     
@@ -584,69 +1125,27 @@ public class SentenceInstance
     }
     public String toString(int width, int precision)
     {
-        String s = "[" + this.getClass().getSimpleName() + ": ";
+        final double[] v = toArray();
+        final StringBuilder s = new StringBuilder("[" + this.getClass().getSimpleName() + ": ");
         
-        for(Field f : attributes)
+        for(int c = 0; c < v.length; c++)
         {
-            s += f.getName() + " = "; 
+            if(c > 0)
+                s.append(", ");
             
-            Attribute a = f.getAnnotation(Attribute.class);
-            if(a != null)
+            s.append(Schema.NAMES[c]).append(" = ");
+            switch(Schema.TYPES[c])
             {
-                try
-                {
-                    double v = f.getDouble(this);
-                    switch(a.type())
-                    {
-                        case NUMERIC:
-                            s += String.format("% " + width + "." + precision + "f", v);
-                            break;
-                        case BOOL:
-                            s += fromBoolNominalIndex(v);
-                            break;
-                        case TAG:
-                            s += fromTagNominalIndex(v);
-                            break;
-                    }
-                }
-                catch (IllegalArgumentException ex) { s += "[error]"; }
-                catch (IllegalAccessException ex) { s += "[error]"; }
+                case NUMERIC:
+                    s.append(String.format("% " + width + "." + precision + "f", v[c]));
+                    break;
+                default:
+                    s.append(toValue(Schema.TYPES[c], v[c]));
+                    break;
             }
-            
-            s += ", ";
         }
-        
-        for(Field f : classes)
-        {
-            s += f.getName() + " = "; 
-            
-            Attribute a = f.getAnnotation(Attribute.class);
-            if(a != null)
-            {
-                try
-                {
-                    double v = f.getDouble(this);
-                    switch(a.type())
-                    {
-                        case NUMERIC:
-                            s += String.format("% " + width + "." + precision + "f", v);
-                            break;
-                        case BOOL:
-                            s += fromBoolNominalIndex(v);
-                            break;
-                        case TAG:
-                            s += fromTagNominalIndex(v);
-                            break;
-                    }
-                }
-                catch (IllegalArgumentException ex) { s += "[error]"; }
-                catch (IllegalAccessException ex) { s += "[error]"; }
-            }
-            
-            s += ", ";
-        }   
 
-        return s.replaceFirst(", \\z", "]");
+        return s.append("]").toString();
     }
     
     private static final Comparator<Field> AttributeComparator = new Comparator<Field>() 
@@ -674,9 +1173,9 @@ public class SentenceInstance
         }
     }; 
 
-    private static final SortedSet<Field> attributes= new java.util.TreeSet<Field>(AttributeComparator);
-    private static final SortedSet<Field> classes   = new java.util.TreeSet<Field>(AttributeComparator);
     private static final double         NOVALUE     = weka.core.Utils.missingValue();
+    // log probabilities of the whole sentence, which add over independent segments
+    private static final List<String>   SUMMED      = Arrays.asList(new String[] { "opennlpParseProb", "stanfordParseProb", "tagSeqProb" });
     private static final List<String>   NOMBOOLS    = Arrays.asList(new String[] { ""+true, ""+false });
     private static final List<String>   NOMWORDTAGS = Arrays.asList(grammartools.GrammarTools.PennTreebankWordTags);
 }